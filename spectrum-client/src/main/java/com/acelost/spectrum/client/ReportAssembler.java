@@ -0,0 +1,151 @@
+package com.acelost.spectrum.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reassembler of reports printed with emission rate and finder of chunks lost on the way.
+ *
+ * Every chunk of such report starts with {@code [#report chunk/total]} header. Logcat may drop
+ * accepted lines later, e.g. by chatty rate limiter, so missing headers are the only way to
+ * find out what was lost. Feed message lines without logcat prefix, one by one:
+ * {@code adb logcat -v raw -s Spectrum | java -cp spectrum-client.jar com.acelost.spectrum.client.ReportAssembler}
+ */
+public final class ReportAssembler {
+
+    /**
+     * Chunks of one report received so far.
+     */
+    public static final class Report {
+
+        public final int number;
+        public final int total;
+        // Text of chunks by index, null if chunk wasn't received
+        private final String[] chunks;
+
+        Report(int number, int total) {
+            this.number = number;
+            this.total = total;
+            this.chunks = new String[total];
+        }
+
+        public boolean isComplete() {
+            return missingChunks().isEmpty();
+        }
+
+        /**
+         * @return numbers of chunks not received, starting from 1 as in headers.
+         */
+        public List<Integer> missingChunks() {
+            final List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < total; i++) {
+                if (chunks[i] == null) {
+                    missing.add(i + 1);
+                }
+            }
+            return missing;
+        }
+
+        /**
+         * @return report text joined from chunks in order, missing chunks are marked by a line.
+         */
+        public String text() {
+            final StringBuilder text = new StringBuilder();
+            for (int i = 0; i < total; i++) {
+                if (chunks[i] != null) {
+                    text.append(chunks[i]);
+                } else {
+                    text.append("[chunk ").append(i + 1).append('/').append(total).append(" missing]\n");
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private static final Pattern CHUNK_HEADER = Pattern.compile("^\\[#(\\d+) (\\d+)/(\\d+)\\] ");
+    private static final Pattern DROPPED_CHUNKS = Pattern.compile("^\\[#\\d+\\] dropped chunks:");
+
+    private final Map<Integer, Report> reports = new LinkedHashMap<>();
+    // Chunk which receives following lines, null outside of chunks
+    private Report report;
+    private int chunk;
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Accept next line of log output. Lines before the first chunk header are ignored.
+     */
+    public void accept(String line) {
+        final Matcher header = CHUNK_HEADER.matcher(line);
+        if (header.find()) {
+            completeChunk();
+            final int number = Integer.parseInt(header.group(1));
+            final int index = Integer.parseInt(header.group(2)) - 1;
+            final int total = Integer.parseInt(header.group(3));
+            Report report = reports.get(number);
+            if (report == null || report.total != total) {
+                // Report numbers start over when the app restarts
+                report = new Report(number, total);
+                reports.remove(number);
+                reports.put(number, report);
+            }
+            if (index >= 0 && index < total) {
+                this.report = report;
+                this.chunk = index;
+                text.append(line, header.end(), line.length()).append('\n');
+            }
+            return;
+        }
+        if (DROPPED_CHUNKS.matcher(line).find()) {
+            // Warning of emitter is not a part of report, chunks it lists are found missing anyway
+            completeChunk();
+            return;
+        }
+        if (report != null) {
+            text.append(line).append('\n');
+        }
+    }
+
+    /**
+     * @return reports in order of their first received chunk.
+     */
+    public List<Report> finish() {
+        completeChunk();
+        return new ArrayList<>(reports.values());
+    }
+
+    private void completeChunk() {
+        if (report != null) {
+            report.chunks[chunk] = text.toString();
+            report = null;
+        }
+        text.setLength(0);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, Charset.forName("UTF-8")));
+        final ReportAssembler assembler = new ReportAssembler();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            assembler.accept(line);
+        }
+        int previous = -1;
+        for (Report report : assembler.finish()) {
+            if (previous >= 0 && report.number > previous + 1) {
+                System.out.println("REPORTS #" + (previous + 1) + "..#" + (report.number - 1) + " MISSING");
+            }
+            previous = report.number;
+            final List<Integer> missing = report.missingChunks();
+            System.out.println("REPORT #" + report.number + (missing.isEmpty()
+                    ? " (complete)" : " (missing chunks " + missing + " of " + report.total + ")"));
+            System.out.print(report.text());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.acelost.spectrum.client;
+
+import java.util.List;
+
+/**
+ * Hierarchy snapshot received from Spectrum server.
+ */
+public final class Snapshot {
+
+    public final int sequence;
+    public final long timestamp;
+    public final List<SnapshotNode> activities;
+
+    Snapshot(int sequence, long timestamp, List<SnapshotNode> activities) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.activities = activities;
+    }
+
+    /**
+     * Count of nodes in all activity trees.
+     */
+    public int size() {
+        int size = 0;
+        for (SnapshotNode activity : activities) {
+            size += activity.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder output = new StringBuilder();
+        for (SnapshotNode activity : activities) {
+            activity.print(output, 0);
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.acelost.spectrum.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node of hierarchy snapshot received from Spectrum server.
+ */
+public final class SnapshotNode {
+
+    public static final int TYPE_ACTIVITY = 1;
+    public static final int TYPE_FRAGMENT = 2;
+    public static final int TYPE_VIEW = 3;
+
+    static final int FLAG_VIEW_GROUP = 1;
+    static final int FLAG_DIALOG_FRAGMENT = 1 << 1;
+    static final int FLAG_OUT_OF_LAYOUT = 1 << 2;
+
+    static final int VISIBLE = 0;
+    static final int GONE = 8;
+
+    public final int type;
+    public final String className;
+    /**
+     * Activity state, fragment tag or view id name. Empty if absent.
+     */
+    public final String label;
+    /**
+     * Output of view inspectors. Empty for activities and fragments.
+     */
+    public final String details;
+    final int flags;
+    public final int visibility;
+    public final int left;
+    public final int top;
+    public final int right;
+    public final int bottom;
+    public final List<SnapshotNode> children;
+    final int childCount;
+
+    SnapshotNode(int type, String className, String label, String details, int flags, int visibility,
+                 int left, int top, int right, int bottom, int childCount) {
+        this.type = type;
+        this.className = className;
+        this.label = label;
+        this.details = details;
+        this.flags = flags;
+        this.visibility = visibility;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.childCount = childCount;
+        this.children = childCount == 0
+                ? Collections.<SnapshotNode>emptyList()
+                : new ArrayList<SnapshotNode>(childCount);
+    }
+
+    /**
+     * @return node with the same fields and empty list of children to fill.
+     */
+    SnapshotNode copy() {
+        return new SnapshotNode(type, className, label, details, flags, visibility,
+                left, top, right, bottom, childCount);
+    }
+
+    public boolean isViewGroup() {
+        return (flags & FLAG_VIEW_GROUP) != 0;
+    }
+
+    public boolean isDialogFragment() {
+        return (flags & FLAG_DIALOG_FRAGMENT) != 0;
+    }
+
+    public boolean isOutOfLayout() {
+        return (flags & FLAG_OUT_OF_LAYOUT) != 0;
+    }
+
+    /**
+     * Count of nodes in subtree including this one.
+     */
+    public int size() {
+        int size = 1;
+        for (SnapshotNode child : children) {
+            size += child.size();
+        }
+        return size;
+    }
+
+    void print(StringBuilder output, int level) {
+        for (int i = 0; i < level; i++) {
+            output.append(i % 2 == 0 ? "⡇ " : "  ");
+        }
+        switch (type) {
+            case TYPE_ACTIVITY:
+                output.append("⬟[Activity] ").append(className).append(" [").append(label).append(']');
+                break;
+            case TYPE_FRAGMENT:
+                output.append(isDialogFragment()
+                        ? "◇[DialogFragment] "
+                        : isOutOfLayout() ? "□[Fragment(out-of-layout)] " : "■[Fragment] ");
+                output.append(className);
+                if (!label.isEmpty()) {
+                    output.append(" [tag '").append(label).append("']");
+                }
+                break;
+            default:
+                final boolean visible = visibility == VISIBLE;
+                output.append(isViewGroup()
+                        ? visible ? "▸[ViewGroup] " : "▹[ViewGroup] "
+                        : visible ? "●[View] " : "○[View] ");
+                output.append(className);
+                if (!details.isEmpty()) {
+                    output.append(' ').append(details);
+                }
+                if (!label.isEmpty()) {
+                    output.append(" [id/").append(label).append(']');
+                }
+                if (isOutOfLayout()) {
+                    output.append(" [out of layout]");
+                } else if (visibility == GONE) {
+                    output.append(" [gone]");
+                } else {
+                    output.append(" [").append(left).append(" ⇔ ").append(right)
+                            .append("]×[").append(top).append(" ⇕ ").append(bottom).append(']');
+                }
+                break;
+        }
+        output.append('\n');
+        for (SnapshotNode child : children) {
+            child.print(output, level + (type == TYPE_ACTIVITY ? 2 : 1));
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.acelost.spectrum.client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of Spectrum server stream.
+ *
+ * Forward device socket first: {@code adb forward tcp:7777 localabstract:spectrum},
+ * then run {@code java -jar spectrum-client.jar [port]} to follow live UI hierarchy.
+ */
+public final class SpectrumClient {
+
+    /**
+     * Receives decoded frames on the reading thread.
+     */
+    public interface Listener {
+
+        void onSnapshot(Snapshot snapshot);
+
+        void onChanges(List<String> changes);
+    }
+
+    static final int PROTOCOL_VERSION = 2;
+
+    static final int FRAME_HELLO = 0;
+    static final int FRAME_SNAPSHOT = 1;
+    static final int FRAME_CHANGES = 2;
+    static final int FRAME_DELTA = 3;
+
+    private static final int DEFAULT_PORT = 7777;
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataInputStream input;
+
+    // Pre-order node records of the last snapshot, deltas are applied to them
+    private List<SnapshotNode> records;
+    private int sequence;
+
+    public SpectrumClient(InputStream input) {
+        this.input = new DataInputStream(new BufferedInputStream(input));
+    }
+
+    /**
+     * Read frames until the stream ends. Deltas are delivered as full snapshots.
+     */
+    public void read(Listener listener) throws IOException {
+        while (true) {
+            final int length;
+            try {
+                length = input.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length < 1 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Malformed frame length " + length);
+            }
+            final int type = input.readUnsignedByte();
+            final byte[] payload = new byte[length - 1];
+            input.readFully(payload);
+            final DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (type) {
+                case FRAME_HELLO:
+                    final int version = frame.readInt();
+                    if (version < 1 || version > PROTOCOL_VERSION) {
+                        throw new IOException("Unsupported protocol version " + version);
+                    }
+                    break;
+                case FRAME_SNAPSHOT:
+                    listener.onSnapshot(decodeSnapshot(frame));
+                    break;
+                case FRAME_DELTA:
+                    listener.onSnapshot(decodeDelta(frame));
+                    break;
+                case FRAME_CHANGES:
+                    listener.onChanges(decodeChanges(frame));
+                    break;
+                default:
+                    // Skip unknown frames to stay compatible with newer servers
+                    break;
+            }
+        }
+    }
+
+    Snapshot decodeSnapshot(DataInputStream input) throws IOException {
+        final int sequence = input.readInt();
+        final long timestamp = input.readLong();
+        final int count = readCount(input);
+        final List<SnapshotNode> records = new ArrayList<>();
+        while (input.available() > 0) {
+            records.add(decodeNode(input));
+        }
+        final Snapshot snapshot = buildSnapshot(sequence, timestamp, records);
+        if (snapshot.activities.size() != count) {
+            throw new IOException("Malformed snapshot, " + snapshot.activities.size()
+                    + " activities instead of " + count);
+        }
+        this.records = records;
+        this.sequence = sequence;
+        return snapshot;
+    }
+
+    /**
+     * Delta is {@code [int sequence][int base sequence][long timestamp][int hunk count]}
+     * and hunks {@code [int start][int removed][int inserted][inserted node records]} ordered by start
+     * in records of the base snapshot.
+     */
+    Snapshot decodeDelta(DataInputStream input) throws IOException {
+        final int sequence = input.readInt();
+        final int baseSequence = input.readInt();
+        final long timestamp = input.readLong();
+        if (records == null || baseSequence != this.sequence) {
+            throw new IOException("Delta #" + sequence + " against unknown snapshot #" + baseSequence);
+        }
+        final int count = readCount(input);
+        final int[] starts = new int[count];
+        final int[] removed = new int[count];
+        final List<List<SnapshotNode>> inserted = new ArrayList<>(count);
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = input.readInt();
+            removed[i] = input.readInt();
+            if (starts[i] < end || removed[i] < 0 || starts[i] + removed[i] > records.size()) {
+                throw new IOException("Malformed delta hunk " + starts[i] + "+" + removed[i]);
+            }
+            end = starts[i] + removed[i];
+            final int insertedCount = readCount(input);
+            final List<SnapshotNode> nodes = new ArrayList<>(insertedCount);
+            for (int j = 0; j < insertedCount; j++) {
+                nodes.add(decodeNode(input));
+            }
+            inserted.add(nodes);
+        }
+        final List<SnapshotNode> records = new ArrayList<>(this.records);
+        // Applied from the end so that starts of preceding hunks stay valid
+        for (int i = count - 1; i >= 0; i--) {
+            records.subList(starts[i], starts[i] + removed[i]).clear();
+            records.addAll(starts[i], inserted.get(i));
+        }
+        final Snapshot snapshot = buildSnapshot(sequence, timestamp, records);
+        this.records = records;
+        this.sequence = sequence;
+        return snapshot;
+    }
+
+    private static Snapshot buildSnapshot(int sequence, long timestamp, List<SnapshotNode> records)
+            throws IOException {
+        final List<SnapshotNode> activities = new ArrayList<>();
+        final int[] position = new int[1];
+        while (position[0] < records.size()) {
+            activities.add(buildNode(records, position));
+        }
+        return new Snapshot(sequence, timestamp, activities);
+    }
+
+    private static SnapshotNode buildNode(List<SnapshotNode> records, int[] position) throws IOException {
+        final SnapshotNode record = records.get(position[0]++);
+        if (record.childCount > records.size() - position[0]) {
+            throw new IOException("Malformed snapshot, " + record.childCount + " children of "
+                    + record.className + " exceed remaining nodes");
+        }
+        final SnapshotNode node = record.copy();
+        for (int i = 0; i < record.childCount; i++) {
+            node.children.add(buildNode(records, position));
+        }
+        return node;
+    }
+
+    /**
+     * @return node without children, {@link SnapshotNode#childCount} tells how many follow it.
+     */
+    private static SnapshotNode decodeNode(DataInputStream input) throws IOException {
+        final int type = input.readUnsignedByte();
+        final String className = readString(input);
+        final String label = readString(input);
+        String details = "";
+        int flags = 0;
+        int visibility = SnapshotNode.VISIBLE;
+        int left = 0, top = 0, right = 0, bottom = 0;
+        switch (type) {
+            case SnapshotNode.TYPE_ACTIVITY:
+                break;
+            case SnapshotNode.TYPE_FRAGMENT:
+                flags = input.readUnsignedByte();
+                break;
+            case SnapshotNode.TYPE_VIEW:
+                details = readString(input);
+                flags = input.readUnsignedByte();
+                visibility = input.readUnsignedByte();
+                left = input.readInt();
+                top = input.readInt();
+                right = input.readInt();
+                bottom = input.readInt();
+                break;
+            default:
+                throw new IOException("Unknown node type " + type);
+        }
+        // Children of a delta record may be records of the base snapshot, checked when tree is built
+        final int childCount = input.readInt();
+        if (childCount < 0) {
+            throw new IOException("Malformed child count " + childCount);
+        }
+        return new SnapshotNode(type, className, label, details, flags, visibility,
+                left, top, right, bottom, childCount);
+    }
+
+    static List<String> decodeChanges(DataInputStream input) throws IOException {
+        final int count = readCount(input);
+        final List<String> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            changes.add(readString(input));
+        }
+        return changes;
+    }
+
+    /**
+     * Every counted item takes at least one byte, so count can't exceed the rest of the frame.
+     */
+    private static int readCount(DataInputStream input) throws IOException {
+        final int count = input.readInt();
+        if (count < 0 || count > input.available()) {
+            throw new IOException("Malformed count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("Malformed string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final Socket socket = new Socket("localhost", port);
+        try {
+            new SpectrumClient(socket.getInputStream()).read(new Listener() {
+                @Override
+                public void onSnapshot(Snapshot snapshot) {
+                    System.out.println("SNAPSHOT #" + snapshot.sequence + " (" + snapshot.size() + " nodes)");
+                    System.out.print(snapshot);
+                }
+
+                @Override
+                public void onChanges(List<String> changes) {
+                    for (String change : changes) {
+                        System.out.println(" - " + change);
+                    }
+                }
+            });
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.acelost.spectrum.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportAssemblerTest {
+
+    @Test
+    public void joinsChunksInOrder() {
+        final List<ReportAssembler.Report> reports = assemble(
+                "unrelated line",
+                "[#1 1/2] BEGIN",
+                "⬟[Activity] MainActivity",
+                "[#1 2/2]   TextView",
+                "END");
+        assertEquals(1, reports.size());
+        final ReportAssembler.Report report = reports.get(0);
+        assertEquals(1, report.number);
+        assertTrue(report.isComplete());
+        assertEquals("BEGIN\n⬟[Activity] MainActivity\n  TextView\nEND\n", report.text());
+    }
+
+    @Test
+    public void findsDroppedChunks() {
+        final List<ReportAssembler.Report> reports = assemble(
+                "[#3 1/4] first",
+                "[#3 3/4] third",
+                "[#4 1/1] next");
+        assertEquals(2, reports.size());
+        final ReportAssembler.Report report = reports.get(0);
+        assertFalse(report.isComplete());
+        assertEquals(Arrays.asList(2, 4), report.missingChunks());
+        assertEquals("first\n[chunk 2/4 missing]\nthird\n[chunk 4/4 missing]\n", report.text());
+        assertTrue(reports.get(1).isComplete());
+    }
+
+    @Test
+    public void acceptsRetriedChunkAndSkipsWarning() {
+        final List<ReportAssembler.Report> reports = assemble(
+                "[#5 1/3] one",
+                "[#5 3/3] three",
+                "[#5 2/3] two",
+                "[#5] dropped chunks: 2 of 3",
+                "stray line");
+        assertEquals(Collections.<Integer>emptyList(), reports.get(0).missingChunks());
+        assertEquals("one\ntwo\nthree\n", reports.get(0).text());
+    }
+
+    private static List<ReportAssembler.Report> assemble(String... lines) {
+        final ReportAssembler assembler = new ReportAssembler();
+        for (String line : lines) {
+            assembler.accept(line);
+        }
+        return assembler.finish();
+    }
+}
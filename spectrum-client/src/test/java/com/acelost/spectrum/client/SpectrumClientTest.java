@@ -0,0 +1,294 @@
+package com.acelost.spectrum.client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpectrumClientTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void decodesFramesFromSocket() throws Exception {
+        final byte[] stream = concat(
+                hello(2),
+                frame(SpectrumClient.FRAME_SNAPSHOT, snapshot(1, 100L, 1, concat(
+                        activity("MainActivity", "RESUMED", 1),
+                        fragment("HomeFragment", "home", 0, 1),
+                        view("FrameLayout", "content", "", SnapshotNode.FLAG_VIEW_GROUP, 0, 0, 0, 1080, 1920, 2),
+                        view("TextView", "", "text='Hi'", 0, 0, 0, 0, 100, 50, 0),
+                        view("ImageView", "icon", "", 0, 8, 0, 0, 0, 0, 0)))),
+                frame(SpectrumClient.FRAME_CHANGES, changes("TextView text changed", "ImageView gone"))
+        );
+        final RecordingListener listener = readFromSocket(stream);
+
+        assertEquals(1, listener.snapshots.size());
+        final Snapshot snapshot = listener.snapshots.get(0);
+        assertEquals(1, snapshot.sequence);
+        assertEquals(100L, snapshot.timestamp);
+        assertEquals(5, snapshot.size());
+        final SnapshotNode activity = snapshot.activities.get(0);
+        assertEquals(SnapshotNode.TYPE_ACTIVITY, activity.type);
+        assertEquals("MainActivity", activity.className);
+        assertEquals("RESUMED", activity.label);
+        final SnapshotNode fragment = activity.children.get(0);
+        assertEquals(SnapshotNode.TYPE_FRAGMENT, fragment.type);
+        assertEquals("home", fragment.label);
+        final SnapshotNode content = fragment.children.get(0);
+        assertTrue(content.isViewGroup());
+        assertEquals(1080, content.right);
+        assertEquals(1920, content.bottom);
+        assertEquals(2, content.children.size());
+        assertEquals("text='Hi'", content.children.get(0).details);
+        assertEquals(SnapshotNode.GONE, content.children.get(1).visibility);
+        assertEquals("icon", content.children.get(1).label);
+
+        assertEquals(Arrays.asList(Arrays.asList("TextView text changed", "ImageView gone")), listener.changes);
+    }
+
+    @Test
+    public void appliesDeltaToPreviousSnapshot() throws Exception {
+        final byte[] activity = activity("MainActivity", "RESUMED", 1);
+        final byte[] content = view("FrameLayout", "", "", SnapshotNode.FLAG_VIEW_GROUP, 0, 0, 0, 10, 10, 2);
+        final byte[] first = view("TextView", "first", "", 0, 0, 0, 0, 10, 5, 0);
+        final byte[] second = view("TextView", "second", "", 0, 0, 0, 5, 10, 10, 0);
+        final ByteArrayOutputStream deltaBytes = new ByteArrayOutputStream();
+        final DataOutputStream delta = new DataOutputStream(deltaBytes);
+        delta.writeInt(2);
+        delta.writeInt(1);
+        delta.writeLong(200L);
+        delta.writeInt(3);
+        // Content gets a third child, the first one is replaced by a hidden view
+        hunk(delta, 1, 1, view("FrameLayout", "", "", SnapshotNode.FLAG_VIEW_GROUP, 0, 0, 0, 10, 10, 3));
+        hunk(delta, 2, 1, view("TextView", "first", "", 0, 4, 0, 0, 10, 5, 0));
+        delta.writeInt(4);
+        delta.writeInt(0);
+        delta.writeInt(1);
+        delta.write(view("Button", "third", "", 0, 0, 0, 10, 10, 15, 0));
+
+        final RecordingListener listener = readFromSocket(concat(
+                hello(2),
+                frame(SpectrumClient.FRAME_SNAPSHOT, snapshot(1, 100L, 1, concat(activity, content, first, second))),
+                frame(SpectrumClient.FRAME_DELTA, deltaBytes.toByteArray())
+        ));
+
+        assertEquals(2, listener.snapshots.size());
+        final Snapshot snapshot = listener.snapshots.get(1);
+        assertEquals(2, snapshot.sequence);
+        assertEquals(200L, snapshot.timestamp);
+        final List<SnapshotNode> children = snapshot.activities.get(0).children.get(0).children;
+        assertEquals(3, children.size());
+        assertEquals(4, children.get(0).visibility);
+        assertEquals("second", children.get(1).label);
+        assertEquals("third", children.get(2).label);
+        // Previous snapshot is left intact
+        assertEquals(2, listener.snapshots.get(0).activities.get(0).children.get(0).children.size());
+    }
+
+    @Test
+    public void rejectsDeltaAgainstUnknownSnapshot() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream delta = new DataOutputStream(bytes);
+        delta.writeInt(5);
+        delta.writeInt(4);
+        delta.writeLong(0L);
+        delta.writeInt(0);
+        assertMalformed(concat(hello(2), frame(SpectrumClient.FRAME_DELTA, bytes.toByteArray())));
+    }
+
+    @Test
+    public void rejectsMalformedStringLength() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream changes = new DataOutputStream(bytes);
+        changes.writeInt(1);
+        changes.writeInt(-1);
+        assertMalformed(concat(hello(2), frame(SpectrumClient.FRAME_CHANGES, bytes.toByteArray())));
+
+        bytes.reset();
+        changes.writeInt(1);
+        changes.writeInt(Integer.MAX_VALUE);
+        changes.write(new byte[] { 'a', 'b' });
+        assertMalformed(concat(hello(2), frame(SpectrumClient.FRAME_CHANGES, bytes.toByteArray())));
+    }
+
+    @Test
+    public void rejectsChildCountBeyondSnapshot() throws Exception {
+        assertMalformed(concat(hello(2), frame(SpectrumClient.FRAME_SNAPSHOT,
+                snapshot(1, 0L, 1, activity("MainActivity", "RESUMED", 3)))));
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() throws Exception {
+        assertMalformed(hello(3));
+    }
+
+    private static void assertMalformed(byte[] stream) throws Exception {
+        try {
+            new SpectrumClient(new ByteArrayInputStream(stream)).read(new RecordingListener());
+            fail("Malformed stream is accepted");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    private static RecordingListener readFromSocket(final byte[] stream) throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Socket socket = server.accept();
+                    try {
+                        final OutputStream output = socket.getOutputStream();
+                        // Split writes make the client read frames across socket reads
+                        for (int i = 0; i < stream.length; i += 7) {
+                            output.write(stream, i, Math.min(7, stream.length - i));
+                            output.flush();
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writer.start();
+        final RecordingListener listener = new RecordingListener();
+        final Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+        try {
+            new SpectrumClient(socket.getInputStream()).read(listener);
+        } finally {
+            socket.close();
+            server.close();
+        }
+        writer.join();
+        return listener;
+    }
+
+    private static byte[] hello(int version) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(version);
+        return frame(SpectrumClient.FRAME_HELLO, bytes.toByteArray());
+    }
+
+    private static byte[] frame(int type, byte[] payload) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(payload.length + 1);
+        output.writeByte(type);
+        output.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] snapshot(int sequence, long timestamp, int activityCount, byte[] nodes) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(sequence);
+        output.writeLong(timestamp);
+        output.writeInt(activityCount);
+        output.write(nodes);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] activity(String className, String state, int childCount) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(SnapshotNode.TYPE_ACTIVITY);
+        writeString(output, className);
+        writeString(output, state);
+        output.writeInt(childCount);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] fragment(String className, String tag, int flags, int childCount) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(SnapshotNode.TYPE_FRAGMENT);
+        writeString(output, className);
+        writeString(output, tag);
+        output.writeByte(flags);
+        output.writeInt(childCount);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] view(String className, String id, String details, int flags, int visibility,
+                               int left, int top, int right, int bottom, int childCount) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(SnapshotNode.TYPE_VIEW);
+        writeString(output, className);
+        writeString(output, id);
+        writeString(output, details);
+        output.writeByte(flags);
+        output.writeByte(visibility);
+        output.writeInt(left);
+        output.writeInt(top);
+        output.writeInt(right);
+        output.writeInt(bottom);
+        output.writeInt(childCount);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] changes(String... descriptions) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(descriptions.length);
+        for (String description : descriptions) {
+            writeString(output, description);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void hunk(DataOutputStream output, int start, int removed, byte[] record) throws IOException {
+        output.writeInt(start);
+        output.writeInt(removed);
+        output.writeInt(1);
+        output.write(record);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class RecordingListener implements SpectrumClient.Listener {
+
+        final List<Snapshot> snapshots = new ArrayList<>();
+        final List<List<String>> changes = new ArrayList<>();
+
+        @Override
+        public void onSnapshot(Snapshot snapshot) {
+            snapshots.add(snapshot);
+        }
+
+        @Override
+        public void onChanges(List<String> changes) {
+            this.changes.add(changes);
+        }
+    }
+}
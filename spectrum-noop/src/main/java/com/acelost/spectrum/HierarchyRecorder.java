@@ -0,0 +1,47 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * No-op implementation of hierarchy recorder, nothing is recorded or replayed.
+ */
+public final class HierarchyRecorder {
+
+    private HierarchyRecorder() { }
+
+    /**
+     * Capture hierarchy of observed activities with bounds and write it to given file.
+     */
+    @MainThread
+    public static void record(@NonNull File file) throws IOException { /* no-op */ }
+
+    /**
+     * Capture hierarchy of observed activities with bounds and write it to given stream, stream is not closed.
+     */
+    @MainThread
+    public static void record(@NonNull OutputStream stream) throws IOException { /* no-op */ }
+
+    /**
+     * Always empty, nothing is replayed.
+     */
+    @NonNull
+    public static List<String> replay(@NonNull File file) throws IOException {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Always empty, nothing is replayed.
+     */
+    @NonNull
+    public static List<String> replay(@NonNull InputStream stream) throws IOException {
+        return new ArrayList<>();
+    }
+}
@@ -0,0 +1,29 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.MainThread;
+
+/**
+ * No-op implementation of retention monitor, nothing is watched.
+ */
+public final class LeakMonitor {
+
+    private LeakMonitor() { }
+
+    /**
+     * Start watching with default grace period.
+     */
+    @MainThread
+    public static void start() { /* no-op */ }
+
+    /**
+     * Start watching. Instance is considered leaked if it is reachable longer than grace period after destroy.
+     */
+    @MainThread
+    public static void start(long gracePeriodMs) { /* no-op */ }
+
+    /**
+     * Stop watching and forget all watched instances.
+     */
+    @MainThread
+    public static void stop() { /* no-op */ }
+}
@@ -0,0 +1,99 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * No-op implementation of snapshot history, nothing is recorded.
+ */
+public final class SnapshotHistory {
+
+    private SnapshotHistory() { }
+
+    /**
+     * Start recording with default duration.
+     */
+    @MainThread
+    public static void start() { /* no-op */ }
+
+    /**
+     * Start recording. Hierarchies and events older than given duration are dropped.
+     */
+    @MainThread
+    public static void start(long durationMs) { /* no-op */ }
+
+    /**
+     * Stop recording and drop recorded history.
+     */
+    @MainThread
+    public static void stop() { /* no-op */ }
+
+    /**
+     * Always null, nothing is recorded.
+     */
+    @Nullable
+    @MainThread
+    public static Snapshot snapshotAt(long timeMillis) {
+        return null;
+    }
+
+    /**
+     * Always empty, nothing is recorded.
+     */
+    @NonNull
+    @MainThread
+    public static List<Snapshot> snapshotsBetween(@NonNull Event from, @NonNull Event to) {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Always empty, nothing is recorded.
+     */
+    @NonNull
+    @MainThread
+    public static List<Event> journal() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Change detected by Spectrum.
+     */
+    public static final class Event {
+        public final long time;
+        @NonNull
+        public final String description;
+
+        Event(long time, @NonNull String description) {
+            this.time = time;
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + description;
+        }
+    }
+
+    /**
+     * Hierarchy section of a report as it was printed at given time.
+     */
+    public static final class Snapshot {
+        public final long time;
+        @NonNull
+        public final String hierarchy;
+
+        Snapshot(long time, @NonNull String hierarchy) {
+            this.time = time;
+            this.hierarchy = hierarchy;
+        }
+
+        @Override
+        public String toString() {
+            return hierarchy;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.app.Application;
+import android.util.Log;
+import android.view.View;
+import android.view.Window;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+/**
+ * No-op implementation of Spectrum for release builds. Public API is identical to {@code spectrum} artifact,
+ * every call does nothing, so calls and classes are removed by R8 entirely.
+ *
+ * <pre>
+ * debugImplementation 'com.acelost.spectrum:spectrum:0.0.4'
+ * releaseImplementation 'com.acelost.spectrum:spectrum-noop:0.0.4'
+ * </pre>
+ */
+public class Spectrum {
+
+    /**
+     * Spectrum configuration delegate.
+     */
+    public static class Configuration {
+
+
+        /**
+         * Capture every observed activity.
+         */
+        public static final int SCOPE_ALL = 0;
+
+        /**
+         * Capture only resumed or focused activity.
+         */
+        public static final int SCOPE_FOREGROUND = 1;
+
+        /**
+         * Capture only top activities of the foreground task (see {@link #reportTopActivities(int)}).
+         */
+        public static final int SCOPE_TOP_ACTIVITIES = 2;
+
+        /**
+         * Print full hierarchy of every captured activity.
+         */
+        public static final int MODE_HIERARCHY = 0;
+
+        /**
+         * Print only hierarchy statistics of every captured activity (see {@link Spectrum#exportStatistics()}).
+         */
+        public static final int MODE_STATISTICS = 1;
+
+        /**
+         * Detect report gesture by wrapping {@link Window.Callback} of activity window, no views are added.
+         */
+        public static final int GESTURE_WINDOW_CALLBACK = 0;
+
+        /**
+         * Detect report gesture by transparent view added on top of activity decor view.
+         */
+        public static final int GESTURE_OVERLAY_VIEW = 1;
+
+        /**
+         * Set log tag you want to use for output.
+         */
+        @NonNull
+        public Configuration logTag(@NonNull String tag) {
+            return this;
+        }
+
+        /**
+         * Set log level you want to use for output (see valid values in {@link Log} class).
+         */
+        @NonNull
+        public Configuration logLevel(int level) {
+            return this;
+        }
+
+        /**
+         * Whether to append packages to class name or not.
+         */
+        @NonNull
+        public Configuration appendPackages(boolean append) {
+            return this;
+        }
+
+        /**
+         * Whether to append view id to {@link View} nodes.
+         */
+        @NonNull
+        public Configuration appendViewId(boolean append) {
+            return this;
+        }
+
+        /**
+         * Whether to append view location to {@link View} nodes.
+         */
+        @NonNull
+        public Configuration appendViewLocation(boolean append) {
+            return this;
+        }
+
+        /**
+         * Whether to display view hierarchy.
+         */
+        @NonNull
+        public Configuration showViewHierarchy(boolean show) {
+            return this;
+        }
+
+        /**
+         * Whether to trigger building report automatically after any changes.
+         */
+        @NonNull
+        public Configuration autoReporting(boolean enable) {
+            return this;
+        }
+
+        /**
+         * Whether to trigger building report when user double taps.
+         */
+        @NonNull
+        public Configuration gestureReporting(boolean enable) {
+            return this;
+        }
+
+        /**
+         * How to detect report gesture: {@link #GESTURE_WINDOW_CALLBACK} or {@link #GESTURE_OVERLAY_VIEW}.
+         * Applied to activities explored after the call.
+         */
+        @NonNull
+        public Configuration gestureMode(int mode) {
+            return this;
+        }
+
+        /**
+         * Whether to sample reporting or build new report after any changes.
+         */
+        @NonNull
+        public Configuration sampleReporting(boolean sample) {
+            return this;
+        }
+
+        /**
+         * Which activities to capture: {@link #SCOPE_ALL}, {@link #SCOPE_FOREGROUND}
+         * or {@link #SCOPE_TOP_ACTIVITIES}. Activities out of scope are reported as a single line.
+         */
+        @NonNull
+        public Configuration reportScope(int scope) {
+            return this;
+        }
+
+        /**
+         * Count of top activities to capture in {@link #SCOPE_TOP_ACTIVITIES} scope.
+         */
+        @NonNull
+        public Configuration reportTopActivities(int count) {
+            return this;
+        }
+
+        /**
+         * Max length of text printed for {@link TextView} nodes. Longer texts are truncated.
+         */
+        @NonNull
+        public Configuration textMaxLength(int length) {
+            return this;
+        }
+
+        /**
+         * Max count of text characters captured in one report. Texts over budget are skipped.
+         */
+        @NonNull
+        public Configuration textCharsBudget(int chars) {
+            return this;
+        }
+
+        /**
+         * Max time spent on text capture in one report. Texts over budget are skipped.
+         */
+        @NonNull
+        public Configuration textTimeBudget(int ms) {
+            return this;
+        }
+
+        /**
+         * Whether to capture hierarchy in time-boxed slices across frames instead of one pass.
+         */
+        @NonNull
+        public Configuration slicedCapture(boolean sliced) {
+            return this;
+        }
+
+        /**
+         * Max time of one capture slice (see {@link #slicedCapture(boolean)}).
+         */
+        @NonNull
+        public Configuration captureSliceBudget(int ms) {
+            return this;
+        }
+
+        /**
+         * What to print in report: {@link #MODE_HIERARCHY} or {@link #MODE_STATISTICS}.
+         */
+        @NonNull
+        public Configuration reportMode(int mode) {
+            return this;
+        }
+
+        /**
+         * Max count of statistics records kept for export, oldest records are dropped first.
+         */
+        @NonNull
+        public Configuration statisticsHistorySize(int size) {
+            return this;
+        }
+
+        /**
+         * Count of layout passes per second of idle activity considered as layout thrash, 0 to disable detection.
+         */
+        @NonNull
+        public Configuration layoutThrashThreshold(int passesPerSecond) {
+            return this;
+        }
+
+        /**
+         * Max rate of report output in logcat, 0 to print every report at once. When set, report chunks are
+         * printed from background thread with {@code [#report chunk/total]} headers. Chunks which logcat fails
+         * to write are retried and reported, lines dropped by logd later are found by gaps in headers.
+         */
+        @NonNull
+        public Configuration emissionRate(int bytesPerSecond) {
+            return this;
+        }
+
+        /**
+         * Whether to format large subtrees of captured hierarchy in parallel on background threads.
+         */
+        @NonNull
+        public Configuration parallelFormatting(boolean parallel) {
+            return this;
+        }
+
+        /**
+         * Whether to skip capturing subtrees of views which are gone, invisible or outside of window
+         * visible rect. Such views are reported as a single line with count of hidden descendants.
+         */
+        @NonNull
+        public Configuration cullHiddenViews(boolean cull) {
+            return this;
+        }
+
+        /**
+         * Whether to analyze captured hierarchy for layout anti-patterns: redundant nesting, excessive depth,
+         * very wide view groups and nested weights. Findings are reported in {@code LAYOUT ANALYSIS} section.
+         */
+        @NonNull
+        public Configuration layoutAnalysis(boolean analyze) {
+            return this;
+        }
+
+        /**
+         * Whether to annotate views with memory held by bitmaps of their drawables and backgrounds
+         * and to report totals per activity and fragment in {@code DRAWABLE MEMORY} section.
+         */
+        @NonNull
+        public Configuration drawableMemory(boolean inspect) {
+            return this;
+        }
+
+        /**
+         * Whether to print {@code TIMING} section with time to initial display and navigation percentiles.
+         * Timings are measured either way and are available via {@link Spectrum#exportTimings()}.
+         */
+        @NonNull
+        public Configuration timings(boolean report) {
+            return this;
+        }
+
+        /**
+         * Whether to print {@code FRAGMENT TIMING} section with the slowest fragment classes.
+         * Histograms are recorded either way and are available via {@link Spectrum#exportFragmentTimings()}.
+         */
+        @NonNull
+        public Configuration fragmentTimings(boolean report) {
+            return this;
+        }
+    }
+
+    private static final Configuration configuration = new Configuration();
+
+    /**
+     * Start monitoring of application.
+     */
+    @MainThread
+    public static void explore(@NonNull Application application) { /* no-op */ }
+
+    /**
+     * Start monitoring of activity.
+     */
+    @MainThread
+    public static void explore(@NonNull Activity activity) { /* no-op */ }
+
+    /**
+     * Configure state output.
+     */
+    @NonNull
+    public static Configuration configure() {
+        return configuration;
+    }
+
+    /**
+     * Trigger building a report manually.
+     */
+    public static void report() { /* no-op */ }
+
+    /**
+     * Add custom event to CHANGES section of the next report. Safe to call from any thread.
+     */
+    public static void event(@NonNull String description) { /* no-op */ }
+
+    public static void register(@NonNull ViewInspector inspector) { /* no-op */ }
+
+    /**
+     * Export recorded statistics as CSV, nothing is recorded in no-op implementation.
+     */
+    @NonNull
+    @MainThread
+    public static String exportStatistics() {
+        return "";
+    }
+
+    /**
+     * Clear statistics recorded by previous reports.
+     */
+    @MainThread
+    public static void clearStatistics() { /* no-op */ }
+
+    /**
+     * Always -1, nothing is measured in no-op implementation.
+     */
+    @MainThread
+    public static long getTimeToInitialDisplay() {
+        return -1;
+    }
+
+    /**
+     * Export recorded timings as CSV, nothing is recorded in no-op implementation.
+     */
+    @NonNull
+    @MainThread
+    public static String exportTimings() {
+        return "";
+    }
+
+    /**
+     * Clear recorded navigation timings.
+     */
+    @MainThread
+    public static void clearTimings() { /* no-op */ }
+
+    /**
+     * Export fragment timing histograms as CSV, nothing is recorded in no-op implementation.
+     */
+    @NonNull
+    @MainThread
+    public static String exportFragmentTimings() {
+        return "";
+    }
+
+    /**
+     * Clear fragment timing histograms.
+     */
+    @MainThread
+    public static void clearFragmentTimings() { /* no-op */ }
+
+    public interface ViewInspector {
+
+        boolean canInspect(@NonNull View view);
+
+        void inspect(@NonNull View view, @NonNull OutputBuilder output);
+    }
+
+    public static class OutputBuilder {
+
+        @NonNull
+        public OutputBuilder append(@NonNull String string) {
+            return this;
+        }
+
+        @NonNull
+        public OutputBuilder append(char c) {
+            return this;
+        }
+
+        @NonNull
+        public OutputBuilder append(int value) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+/**
+ * No-op implementation of server mode, no socket is opened.
+ */
+public final class SpectrumServer {
+
+    private SpectrumServer() { }
+
+    /**
+     * Start listening on default socket name.
+     */
+    @MainThread
+    public static void start() { /* no-op */ }
+
+    /**
+     * Start listening on abstract-namespace local socket with given name.
+     */
+    @MainThread
+    public static void start(@NonNull String socketName) { /* no-op */ }
+
+    /**
+     * Stop listening and disconnect current client.
+     */
+    @MainThread
+    public static void stop() { /* no-op */ }
+}
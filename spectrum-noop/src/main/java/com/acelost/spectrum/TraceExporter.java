@@ -0,0 +1,33 @@
+package com.acelost.spectrum;
+
+import android.content.Context;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * No-op implementation of timeline export, no file is written.
+ */
+public final class TraceExporter {
+
+    private TraceExporter() { }
+
+    /**
+     * Start writing trace to a new file in external files directory of application.
+     */
+    @MainThread
+    public static void start(@NonNull Context context) { /* no-op */ }
+
+    /**
+     * Start writing trace to given file, existing file is overwritten.
+     */
+    @MainThread
+    public static void start(@NonNull File file) { /* no-op */ }
+
+    /**
+     * Write buffered events, finish and close the file.
+     */
+    @MainThread
+    public static void stop() { /* no-op */ }
+}
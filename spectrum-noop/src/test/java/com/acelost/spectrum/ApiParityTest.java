@@ -0,0 +1,145 @@
+package com.acelost.spectrum;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Public and protected API of no-op classes should match the API of Spectrum classes, so switching
+ * dependency for release builds never breaks compilation.
+ */
+public class ApiParityTest {
+
+    private static final String PACKAGE = "com.acelost.spectrum";
+    // Declared in manifest of Spectrum only, never referenced by application code
+    private static final List<String> SPECTRUM_ONLY = Arrays.asList(PACKAGE + ".SpectrumInitProvider");
+
+    @Test
+    public void noopApiMatchesSpectrumApi() throws Exception {
+        final String classesPath = System.getProperty("spectrum.classes");
+        assertNotNull("spectrum.classes property should point to compiled classes of Spectrum", classesPath);
+        final File classes = new File(classesPath);
+        final ClassLoader spectrumLoader = new SpectrumClassLoader(classes, getClass().getClassLoader());
+        final ClassLoader noopLoader = getClass().getClassLoader();
+
+        final List<String> names = new ArrayList<>();
+        final File[] files = new File(classes, PACKAGE.replace('.', File.separatorChar)).listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            final String fileName = file.getName();
+            if (!fileName.endsWith(".class") || fileName.contains("$")) continue;
+            final String name = PACKAGE + "." + fileName.substring(0, fileName.length() - ".class".length());
+            if (SPECTRUM_ONLY.contains(name)) continue;
+            if (Modifier.isPublic(Class.forName(name, false, spectrumLoader).getModifiers())) {
+                names.add(name);
+            }
+        }
+        assertTrue(names.contains(PACKAGE + ".Spectrum"));
+
+        for (String name : names) {
+            final Class<?> spectrumClass = Class.forName(name, false, spectrumLoader);
+            final Class<?> noopClass = Class.forName(name, false, noopLoader);
+            assertTrue(spectrumClass != noopClass);
+            assertEquals(name, describe(spectrumClass), describe(noopClass));
+        }
+    }
+
+    private static String describe(Class<?> type) {
+        final Set<String> members = new TreeSet<>();
+        describe(type, members);
+        final StringBuilder builder = new StringBuilder();
+        for (String member : members) {
+            builder.append(member).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static void describe(Class<?> type, Set<String> members) {
+        final String owner = type.getName();
+        final StringBuilder header = new StringBuilder(owner).append(": ")
+                .append(Modifier.toString(type.getModifiers()));
+        if (type.getSuperclass() != null) {
+            header.append(" extends ").append(type.getSuperclass().getName());
+        }
+        for (Class<?> implemented : type.getInterfaces()) {
+            header.append(" implements ").append(implemented.getName());
+        }
+        members.add(header.toString());
+        for (Field field : type.getDeclaredFields()) {
+            if (!isApi(field)) continue;
+            members.add(owner + "." + field.getName() + ": "
+                    + Modifier.toString(field.getModifiers()) + " " + field.getType().getName());
+        }
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (!isApi(constructor)) continue;
+            members.add(owner + ".<init>(" + names(constructor.getParameterTypes()) + "): "
+                    + Modifier.toString(constructor.getModifiers()));
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            if (!isApi(method) || method.isBridge()) continue;
+            members.add(owner + "." + method.getName() + "(" + names(method.getParameterTypes()) + "): "
+                    + Modifier.toString(method.getModifiers()) + " " + method.getReturnType().getName());
+        }
+        for (Class<?> nested : type.getDeclaredClasses()) {
+            final int modifiers = nested.getModifiers();
+            if (Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers)) {
+                describe(nested, members);
+            }
+        }
+    }
+
+    private static boolean isApi(Member member) {
+        final int modifiers = member.getModifiers();
+        return !member.isSynthetic() && (Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers));
+    }
+
+    private static String names(Class<?>[] types) {
+        final StringBuilder builder = new StringBuilder();
+        for (Class<?> type : types) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(type.getName());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Loads Spectrum classes from given directory before no-op classes of the same names.
+     */
+    private static final class SpectrumClassLoader extends URLClassLoader {
+
+        SpectrumClassLoader(File classes, ClassLoader parent) throws Exception {
+            super(new URL[] { classes.toURI().toURL() }, parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PACKAGE + ".")) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> type = findLoadedClass(name);
+            if (type == null) {
+                type = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(type);
+            }
+            return type;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.acelost.spectrum.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates {@code Spectrum.ViewInspector} for every class annotated with {@code @InspectView}
+ * and lists them in {@code META-INF/services} file which Spectrum loads with ServiceLoader on init.
+ * Service files of all modules are merged when application is packaged, so every module may apply
+ * the processor.
+ *
+ * Generated inspectors call getters directly, so no reflection is involved while building reports.
+ */
+public final class InspectViewProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.acelost.spectrum.InspectView";
+    static final String SERVICE_FILE = "META-INF/services/com.acelost.spectrum.Spectrum$ViewInspector";
+    static final String INSPECTOR_SUFFIX = "_SpectrumInspector";
+
+    private static final String VIEW = "android.view.View";
+
+    private Filer filer;
+    private Messager messager;
+    private Elements elements;
+    private Types types;
+
+    // Inspectors generated in all rounds, service file is written once when processing is over
+    private final List<String> inspectors = new ArrayList<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final TypeElement annotation = elements.getTypeElement(ANNOTATION);
+        final Set<? extends Element> annotated = annotation != null
+                ? roundEnv.getElementsAnnotatedWith(annotation)
+                : Collections.<Element>emptySet();
+        for (Element element : annotated) {
+            if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.INTERFACE) {
+                error(element, "@InspectView can only be applied to classes");
+                continue;
+            }
+            processElement((TypeElement) element);
+        }
+        if (roundEnv.processingOver() && !inspectors.isEmpty()) {
+            writeServiceFile();
+        }
+        return true;
+    }
+
+    private void processElement(TypeElement element) {
+        final AnnotationMirror mirror = findAnnotation(element);
+        if (mirror == null) return;
+        TypeElement target = element;
+        final List<String> properties = new ArrayList<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            final String name = entry.getKey().getSimpleName().toString();
+            final Object value = entry.getValue().getValue();
+            if ("value".equals(name) && value instanceof DeclaredType) {
+                final TypeElement declared = (TypeElement) ((DeclaredType) value).asElement();
+                if (!declared.getQualifiedName().contentEquals("java.lang.Void")) {
+                    target = declared;
+                }
+            } else if ("properties".equals(name) && value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    properties.add(String.valueOf(((AnnotationValue) item).getValue()));
+                }
+            }
+        }
+        final TypeElement view = elements.getTypeElement(VIEW);
+        if (view != null && !types.isAssignable(types.erasure(target.asType()), view.asType())) {
+            error(element, target.getQualifiedName() + " is not a View");
+            return;
+        }
+        if (!target.getModifiers().contains(Modifier.PUBLIC)) {
+            error(element, target.getQualifiedName() + " should be public");
+            return;
+        }
+        final List<ExecutableElement> getters = new ArrayList<>(properties.size());
+        for (String property : properties) {
+            final ExecutableElement getter = findGetter(target, property);
+            if (getter == null) {
+                error(element, "No public non-static method " + property + "() returning value in "
+                        + target.getQualifiedName());
+                return;
+            }
+            getters.add(getter);
+        }
+        try {
+            writeInspector(element, target, getters);
+        } catch (IOException e) {
+            error(element, "Failed to write inspector: " + e.getMessage());
+        }
+    }
+
+    private AnnotationMirror findAnnotation(TypeElement element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            final TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(ANNOTATION)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private ExecutableElement findGetter(TypeElement target, String name) {
+        for (Element member : elements.getAllMembers(target)) {
+            if (member.getKind() != ElementKind.METHOD) continue;
+            if (!member.getSimpleName().contentEquals(name)) continue;
+            final ExecutableElement method = (ExecutableElement) member;
+            final Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.PUBLIC)
+                    && !modifiers.contains(Modifier.STATIC)
+                    && method.getParameters().isEmpty()
+                    && method.getReturnType().getKind() != TypeKind.VOID) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private void writeInspector(TypeElement element, TypeElement target, List<ExecutableElement> getters)
+            throws IOException {
+        final String packageName = getPackageName(element);
+        final String simpleName = getFlatName(element) + INSPECTOR_SUFFIX;
+        final String targetName = target.getQualifiedName().toString();
+        final StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import android.view.View;\n")
+                .append("import androidx.annotation.NonNull;\n")
+                .append("import com.acelost.spectrum.Spectrum;\n\n")
+                .append("/**\n * Generated by spectrum-processor from {@link ")
+                .append(element.getQualifiedName()).append("}, do not edit.\n */\n")
+                .append("public final class ").append(simpleName).append(" implements Spectrum.ViewInspector {\n\n")
+                .append("    @Override\n")
+                .append("    public boolean canInspect(@NonNull View view) {\n")
+                .append("        return view instanceof ").append(targetName).append(";\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public void inspect(@NonNull View view, @NonNull Spectrum.OutputBuilder output) {\n")
+                .append("        final ").append(targetName).append(" target = (").append(targetName).append(") view;\n");
+        for (ExecutableElement getter : getters) {
+            final String method = getter.getSimpleName().toString();
+            source.append("        output.append(\" [").append(getPropertyName(method)).append("=\")");
+            if (getter.getReturnType().getKind() == TypeKind.INT) {
+                // Appended without boxing
+                source.append(".append(target.").append(method).append("())");
+            } else {
+                source.append(".append(String.valueOf(target.").append(method).append("()))");
+            }
+            source.append(".append(']');\n");
+        }
+        source.append("    }\n}\n");
+
+        final String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        final Writer writer = filer.createSourceFile(qualifiedName, element).openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+        inspectors.add(qualifiedName);
+        originatingElements.add(element);
+    }
+
+    private void writeServiceFile() {
+        final StringBuilder content = new StringBuilder();
+        for (String inspector : inspectors) {
+            content.append(inspector).append('\n');
+        }
+        try {
+            final Element[] origins = originatingElements.toArray(new Element[0]);
+            final Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE, origins)
+                    .openWriter();
+            try {
+                writer.write(content.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to write inspector service file: " + e.getMessage());
+        }
+    }
+
+    private String getPackageName(TypeElement element) {
+        final PackageElement packageElement = elements.getPackageOf(element);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    /**
+     * Name of nested class joined with its outer classes, e.g. {@code Outer_Inner}.
+     */
+    private String getFlatName(TypeElement element) {
+        final String packageName = getPackageName(element);
+        final String qualifiedName = element.getQualifiedName().toString();
+        final String relativeName = packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1);
+        return relativeName.replace('.', '_');
+    }
+
+    /**
+     * Property name of getter, e.g. {@code scaleType} for {@code getScaleType}.
+     */
+    static String getPropertyName(String method) {
+        final String stripped;
+        if (method.length() > 3 && method.startsWith("get") && Character.isUpperCase(method.charAt(3))) {
+            stripped = method.substring(3);
+        } else if (method.length() > 2 && method.startsWith("is") && Character.isUpperCase(method.charAt(2))) {
+            stripped = method.substring(2);
+        } else {
+            return method;
+        }
+        return Character.toLowerCase(stripped.charAt(0)) + stripped.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
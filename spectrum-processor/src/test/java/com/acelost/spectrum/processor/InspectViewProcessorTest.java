@@ -0,0 +1,182 @@
+package com.acelost.spectrum.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InspectViewProcessorTest {
+
+    // Minimal API of Android and Spectrum referenced by generated sources
+    private static final String[][] STUBS = {
+            { "android.view.View", "package android.view; public class View { }" },
+            { "androidx.annotation.NonNull", "package androidx.annotation; public @interface NonNull { }" },
+            { "com.acelost.spectrum.InspectView", "package com.acelost.spectrum;\n"
+                    + "public @interface InspectView { Class<?> value() default Void.class; String[] properties(); }" },
+            { "com.acelost.spectrum.Spectrum", "package com.acelost.spectrum;\n"
+                    + "public class Spectrum {\n"
+                    + "    public interface ViewInspector {\n"
+                    + "        boolean canInspect(android.view.View view);\n"
+                    + "        void inspect(android.view.View view, OutputBuilder output);\n"
+                    + "    }\n"
+                    + "    public static class OutputBuilder {\n"
+                    + "        public final StringBuilder text = new StringBuilder();\n"
+                    + "        public OutputBuilder append(String value) { text.append(value); return this; }\n"
+                    + "        public OutputBuilder append(char value) { text.append(value); return this; }\n"
+                    + "        public OutputBuilder append(int value) { text.append(value); return this; }\n"
+                    + "    }\n"
+                    + "}" },
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatesInspectorsAndServiceFile() throws Exception {
+        final File output = compile(
+                source("com.example.ui.BadgeView", "package com.example.ui;\n"
+                        + "public class BadgeView extends android.view.View {\n"
+                        + "    public int getCount() { return 7; }\n"
+                        + "    public boolean isHighlighted() { return true; }\n"
+                        + "}"),
+                source("com.example.ui.Inspections", "package com.example.ui;\n"
+                        + "import com.acelost.spectrum.InspectView;\n"
+                        + "public class Inspections {\n"
+                        + "    @InspectView(value = BadgeView.class, properties = {\"getCount\", \"isHighlighted\"})\n"
+                        + "    static class Badge { }\n"
+                        + "}"),
+                source("com.example.ui.TitleView", "package com.example.ui;\n"
+                        + "@com.acelost.spectrum.InspectView(properties = \"getTitle\")\n"
+                        + "public class TitleView extends android.view.View {\n"
+                        + "    public String getTitle() { return \"Hello\"; }\n"
+                        + "}")
+        );
+
+        final File serviceFile = new File(output, InspectViewProcessor.SERVICE_FILE);
+        assertTrue(serviceFile.exists());
+        final List<String> services = Files.readAllLines(serviceFile.toPath(), Charset.forName("UTF-8"));
+        Collections.sort(services);
+        assertEquals(Arrays.asList(
+                "com.example.ui.Inspections_Badge_SpectrumInspector",
+                "com.example.ui.TitleView_SpectrumInspector"
+        ), services);
+
+        final URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() });
+        try {
+            assertEquals(" [count=7] [highlighted=true]",
+                    inspect(loader, services.get(0), "com.example.ui.BadgeView"));
+            assertEquals(" [title=Hello]",
+                    inspect(loader, services.get(1), "com.example.ui.TitleView"));
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void noServiceFileWithoutDeclarations() throws Exception {
+        final File output = compile(source("com.example.Plain", "package com.example; public class Plain { }"));
+        assertFalse(new File(output, InspectViewProcessor.SERVICE_FILE).exists());
+    }
+
+    @Test
+    public void reportsMissingGetter() throws Exception {
+        final List<String> errors = compileWithErrors(
+                source("com.example.Broken", "package com.example;\n"
+                        + "@com.acelost.spectrum.InspectView(properties = \"getMissing\")\n"
+                        + "public class Broken extends android.view.View { }"));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith("No public non-static method getMissing()"));
+    }
+
+    @Test
+    public void propertyNames() {
+        assertEquals("scaleType", InspectViewProcessor.getPropertyName("getScaleType"));
+        assertEquals("enabled", InspectViewProcessor.getPropertyName("isEnabled"));
+        assertEquals("getter", InspectViewProcessor.getPropertyName("getter"));
+        assertEquals("length", InspectViewProcessor.getPropertyName("length"));
+    }
+
+    private static String inspect(ClassLoader loader, String inspectorName, String viewName) throws Exception {
+        final Object inspector = loader.loadClass(inspectorName).newInstance();
+        final Object view = loader.loadClass(viewName).newInstance();
+        final Class<?> viewClass = loader.loadClass("android.view.View");
+        final Class<?> outputClass = loader.loadClass("com.acelost.spectrum.Spectrum$OutputBuilder");
+        final Object output = outputClass.newInstance();
+        final Class<?> inspectorClass = loader.loadClass("com.acelost.spectrum.Spectrum$ViewInspector");
+        assertTrue((Boolean) inspectorClass.getMethod("canInspect", viewClass).invoke(inspector, view));
+        inspectorClass.getMethod("inspect", viewClass, outputClass).invoke(inspector, view, output);
+        return outputClass.getField("text").get(output).toString();
+    }
+
+    private File compile(JavaFileObject... sources) throws IOException {
+        final File output = folder.newFolder();
+        final List<String> errors = run(output, sources);
+        assertTrue(errors.toString(), errors.isEmpty());
+        return output;
+    }
+
+    private List<String> compileWithErrors(JavaFileObject... sources) throws IOException {
+        return run(folder.newFolder(), sources);
+    }
+
+    private static List<String> run(File output, JavaFileObject... sources) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        final List<JavaFileObject> units = new ArrayList<>();
+        for (String[] stub : STUBS) {
+            units.add(source(stub[0], stub[1]));
+        }
+        units.addAll(Arrays.asList(sources));
+        try {
+            final JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), fileManager, diagnostics,
+                    Arrays.asList("-d", output.getPath()),
+                    null, units);
+            task.setProcessors(Collections.singletonList(new InspectViewProcessor()));
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+        final List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    private static JavaFileObject source(String className, final String code) {
+        final URI uri = URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
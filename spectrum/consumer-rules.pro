@@ -0,0 +1,5 @@
+# Inspectors generated by spectrum-processor are listed in META-INF/services and created by ServiceLoader
+-keepnames class com.acelost.spectrum.Spectrum$ViewInspector
+-keep class **_SpectrumInspector implements com.acelost.spectrum.Spectrum$ViewInspector {
+    public <init>();
+}
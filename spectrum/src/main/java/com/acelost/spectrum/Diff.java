@@ -0,0 +1,144 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference of two lists as replaced ranges (hunks), found by Myers algorithm over elements
+ * compared with {@link Object#equals(Object)}.
+ *
+ * Common head and tail are skipped first. Search is bounded by edit count, when lists differ
+ * in more elements the whole differing middle is returned as one hunk.
+ */
+final class Diff {
+
+    /**
+     * Range of {@code removed} elements replaced by {@code inserted} elements.
+     * Start positions are indexes in the old and the new list respectively.
+     */
+    static final class Hunk {
+        final int start;
+        int removed;
+        final int insertStart;
+        int inserted;
+
+        Hunk(int start, int insertStart) {
+            this.start = start;
+            this.insertStart = insertStart;
+        }
+    }
+
+    private Diff() { }
+
+    /**
+     * @return hunks ordered by position, empty if lists are equal.
+     */
+    @NonNull
+    static <T> List<Hunk> compute(@NonNull List<T> before, @NonNull List<T> after, int maxEdits) {
+        final int beforeSize = before.size();
+        final int afterSize = after.size();
+        int head = 0;
+        while (head < beforeSize && head < afterSize && before.get(head).equals(after.get(head))) {
+            head++;
+        }
+        if (head == beforeSize && head == afterSize) {
+            return Collections.emptyList();
+        }
+        int tail = 0;
+        while (tail < beforeSize - head && tail < afterSize - head
+                && before.get(beforeSize - 1 - tail).equals(after.get(afterSize - 1 - tail))) {
+            tail++;
+        }
+        final int n = beforeSize - head - tail;
+        final int m = afterSize - head - tail;
+        final List<Hunk> hunks = new ArrayList<>();
+        if (n == 0 || m == 0 || !search(before, after, head, n, m, maxEdits, hunks)) {
+            hunks.clear();
+            final Hunk hunk = new Hunk(head, head);
+            hunk.removed = n;
+            hunk.inserted = m;
+            hunks.add(hunk);
+        }
+        return hunks;
+    }
+
+    /**
+     * Greedy forward search keeping furthest reaching x of every diagonal k = x - y for every
+     * edit count d, then backtracking through saved rows from the end to the start.
+     *
+     * @return false if the middle can't be matched within max edits.
+     */
+    private static <T> boolean search(@NonNull List<T> before, @NonNull List<T> after,
+                                      int offset, int n, int m, int maxEdits,
+                                      @NonNull List<Hunk> hunks) {
+        final int max = Math.min(n + m, maxEdits);
+        // Row d holds furthest x of diagonals -d..d at index k + d
+        final List<int[]> trace = new ArrayList<>();
+        int[] previous = new int[] { 0 };
+        int edits = -1;
+        for (int d = 0; d <= max && edits < 0; d++) {
+            final int[] row = new int[2 * d + 1];
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) {
+                    x = 0;
+                } else if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+                    x = previous[k + 1 + d - 1];
+                } else {
+                    x = previous[k - 1 + d - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && before.get(offset + x).equals(after.get(offset + y))) {
+                    x++;
+                    y++;
+                }
+                row[k + d] = x;
+                if (x >= n && y >= m) {
+                    edits = d;
+                    break;
+                }
+            }
+            trace.add(row);
+            previous = row;
+        }
+        if (edits < 0) return false;
+
+        // Edits are found from the end, position of each is saved to build hunks in order
+        final int[] editX = new int[edits];
+        final int[] editY = new int[edits];
+        final boolean[] insertion = new boolean[edits];
+        int x = n;
+        int y = m;
+        for (int d = edits; d > 0; d--) {
+            final int[] row = trace.get(d - 1);
+            final int k = x - y;
+            final boolean down = k == -d || (k != d && row[k - 1 + d - 1] < row[k + 1 + d - 1]);
+            final int previousK = down ? k + 1 : k - 1;
+            final int previousX = row[previousK + d - 1];
+            final int previousY = previousX - previousK;
+            editX[d - 1] = previousX;
+            editY[d - 1] = previousY;
+            insertion[d - 1] = down;
+            x = previousX;
+            y = previousY;
+        }
+        Hunk hunk = null;
+        for (int i = 0; i < edits; i++) {
+            final int start = offset + editX[i];
+            final int insertStart = offset + editY[i];
+            if (hunk == null || hunk.start + hunk.removed != start || hunk.insertStart + hunk.inserted != insertStart) {
+                hunk = new Hunk(start, insertStart);
+                hunks.add(hunk);
+            }
+            if (insertion[i]) {
+                hunk.inserted++;
+            } else {
+                hunk.removed++;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,417 @@
+package com.acelost.spectrum;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records captured hierarchy to a compact file and replays it through the same formatting and output
+ * pipeline as a live report. Replay touches no Android API, so recorded production hierarchies can be
+ * formatted in JVM unit tests and benchmarks:
+ *
+ * <pre>
+ * // on device
+ * HierarchyRecorder.record(new File(context.getExternalFilesDir(null), "main.spectrum"));
+ * // on JVM
+ * List&lt;String&gt; messages = HierarchyRecorder.replay(new File("src/test/resources/main.spectrum"));
+ * </pre>
+ *
+ * File is gzipped {@code [magic][version][tree]}, every string is written once and referenced by index later.
+ * Class names are recorded instead of class links, so replay follows current {@link Spectrum.Configuration}.
+ */
+public final class HierarchyRecorder {
+
+    static final int MAGIC = 0x53505452; // SPTR
+    static final int FORMAT_VERSION = 2;
+    // Version 2 added count of culled descendants, records of version 1 are still readable
+    private static final int MIN_FORMAT_VERSION = 1;
+
+    private static final int VIEW_GROUP = 1;
+    private static final int VIEW_ATTACHED = 1 << 1;
+    private static final int VIEW_STALE = 1 << 2;
+    private static final int VIEW_BOUNDS = 1 << 3;
+    private static final int VIEW_CULLED = 1 << 4;
+    private static final int FRAGMENT_DIALOG = 1;
+    private static final int FRAGMENT_IN_LAYOUT = 1 << 1;
+    private static final int CLASS_KOTLIN = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HierarchyRecorder() { }
+
+    /**
+     * Capture hierarchy of observed activities with bounds and write it to given file.
+     */
+    @MainThread
+    public static void record(@NonNull File file) throws IOException {
+        final OutputStream output = new FileOutputStream(file);
+        try {
+            record(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Capture hierarchy of observed activities with bounds and write it to given stream, stream is not closed.
+     */
+    @MainThread
+    public static void record(@NonNull OutputStream stream) throws IOException {
+        if (!Spectrum.isInitialized()) {
+            throw new IllegalStateException("Spectrum is not initialized");
+        }
+        final Spectrum.ApplicationStateTree tree = Spectrum.buildAppStateTree(false, true);
+        try {
+            write(tree, stream);
+        } finally {
+            Spectrum.recycleAppStateTree(tree);
+        }
+    }
+
+    /**
+     * Write captured tree to given stream, stream is not closed.
+     */
+    static void write(@NonNull Spectrum.ApplicationStateTree tree, @NonNull OutputStream stream) throws IOException {
+        final GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(stream));
+        final Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(gzip)));
+        writer.writeTree(tree);
+        writer.output.close();
+    }
+
+    /**
+     * Format recorded hierarchy, returns messages which would be printed to logcat.
+     */
+    @NonNull
+    public static List<String> replay(@NonNull File file) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            return replay(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Format recorded hierarchy read from given stream, stream is not closed.
+     */
+    @NonNull
+    public static List<String> replay(@NonNull InputStream stream) throws IOException {
+        final Reader reader = new Reader(new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream))));
+        final Spectrum.ApplicationStateTree tree = reader.readTree();
+        try {
+            return Spectrum.buildRecordedReport(tree);
+        } finally {
+            Spectrum.recycleAppStateTree(tree);
+        }
+    }
+
+    // region Writing
+
+    private static class Writer {
+        final DataOutputStream output;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Class<?>, Boolean> kotlinClasses = new HashMap<>();
+
+        Writer(@NonNull DataOutputStream output) {
+            this.output = output;
+        }
+
+        void writeTree(@NonNull Spectrum.ApplicationStateTree tree) throws IOException {
+            output.writeInt(MAGIC);
+            writeVarInt(FORMAT_VERSION);
+            writeVarInt(tree.activities.size());
+            for (Spectrum.ActivityNode node : tree.activities) {
+                writeClass(node.activity.getClass());
+                writeString(node.state);
+                output.writeBoolean(node.captured);
+                writeVarInt(node.fragment.size());
+                for (Spectrum.FragmentNode fragmentNode : node.fragment) {
+                    writeFragment(fragmentNode);
+                }
+                writeVarInt(node.views.size());
+                for (Spectrum.ViewNode viewNode : node.views) {
+                    writeView(viewNode);
+                }
+            }
+        }
+
+        private void writeFragment(@NonNull Spectrum.FragmentNode node) throws IOException {
+            writeClass(node.fragment.getClass());
+            writeString(node.tag);
+            int flags = 0;
+            if (node.dialog) flags |= FRAGMENT_DIALOG;
+            if (node.attachedToLayout) flags |= FRAGMENT_IN_LAYOUT;
+            output.writeByte(flags);
+            writeVarInt(node.child.size());
+            for (Spectrum.FragmentNode childNode : node.child) {
+                writeFragment(childNode);
+            }
+            output.writeBoolean(node.view != null);
+            if (node.view != null) {
+                writeView(node.view);
+            }
+        }
+
+        private void writeView(@NonNull Spectrum.ViewNode node) throws IOException {
+            writeClass(node.view.getClass());
+            // Id is recorded regardless of configuration, so replay may print it
+            writeString(node.idName != null ? node.idName : Spectrum.getViewIdName(node.view));
+            writeString(node.inspection);
+            output.writeByte(node.visibility);
+            int flags = 0;
+            if (node.viewGroup) flags |= VIEW_GROUP;
+            if (node.attached) flags |= VIEW_ATTACHED;
+            if (node.stale) flags |= VIEW_STALE;
+            if (node.hasBounds) flags |= VIEW_BOUNDS;
+            if (node.culledDescendants > 0) flags |= VIEW_CULLED;
+            output.writeByte(flags);
+            if (node.hasBounds) {
+                writeSignedVarInt(node.left);
+                writeSignedVarInt(node.top);
+                writeSignedVarInt(node.right - node.left);
+                writeSignedVarInt(node.bottom - node.top);
+            }
+            if (node.culledDescendants > 0) {
+                writeVarInt(node.culledDescendants);
+            }
+            writeVarInt(node.fragments.size());
+            for (Spectrum.FragmentNode fragmentNode : node.fragments) {
+                writeFragment(fragmentNode);
+            }
+            writeVarInt(node.child.size());
+            for (Spectrum.ViewNode childNode : node.child) {
+                writeView(childNode);
+            }
+        }
+
+        private void writeClass(@NonNull Class<?> cls) throws IOException {
+            Boolean kotlin = kotlinClasses.get(cls);
+            if (kotlin == null) {
+                kotlin = Spectrum.isKotlinClass(cls);
+                kotlinClasses.put(cls, kotlin);
+            }
+            writeString(cls.getName());
+            output.writeByte(kotlin ? CLASS_KOTLIN : 0);
+        }
+
+        /**
+         * 0 for null, index + 1 of previously written string, or the next index + 1 followed by new string.
+         */
+        private void writeString(@Nullable String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            final Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            writeVarInt(strings.size());
+            final byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length);
+            output.write(bytes);
+        }
+
+        private void writeSignedVarInt(int value) throws IOException {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                output.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.writeByte(value);
+        }
+    }
+
+    // endregion
+
+    // region Reading
+
+    private static class Reader {
+        private final DataInputStream input;
+        private final List<String> strings = new ArrayList<>();
+        // Class links are built once per recorded class, as live capture does with its cache
+        private final Map<String, String> classLinks = new HashMap<>();
+
+        Reader(@NonNull DataInputStream input) {
+            this.input = input;
+        }
+
+        @NonNull
+        Spectrum.ApplicationStateTree readTree() throws IOException {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a Spectrum hierarchy record");
+            }
+            final int version = readVarInt();
+            if (version < MIN_FORMAT_VERSION || version > FORMAT_VERSION) {
+                throw new IOException("Unsupported Spectrum hierarchy record version " + version);
+            }
+            final Spectrum.ApplicationStateTree tree = Spectrum.ApplicationStateTree.obtain();
+            try {
+                final int activities = readVarInt();
+                for (int i = 0; i < activities; i++) {
+                    final Spectrum.ActivityNode node = Spectrum.ActivityNode.obtain();
+                    tree.activities.add(node);
+                    node.classLink = readClassLink();
+                    node.state = readString();
+                    node.captured = input.readBoolean();
+                    final int fragments = readVarInt();
+                    for (int j = 0; j < fragments; j++) {
+                        node.fragment.add(readFragment());
+                    }
+                    final int views = readVarInt();
+                    for (int j = 0; j < views; j++) {
+                        node.views.add(readView());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Spectrum.recycleAppStateTree(tree);
+                throw e;
+            }
+            return tree;
+        }
+
+        @NonNull
+        private Spectrum.FragmentNode readFragment() throws IOException {
+            final Spectrum.FragmentNode node = Spectrum.FragmentNode.obtain();
+            node.classLink = readClassLink();
+            node.tag = readString();
+            final int flags = input.readByte();
+            node.dialog = (flags & FRAGMENT_DIALOG) != 0;
+            node.attachedToLayout = (flags & FRAGMENT_IN_LAYOUT) != 0;
+            final int children = readVarInt();
+            for (int i = 0; i < children; i++) {
+                node.child.add(readFragment());
+            }
+            if (input.readBoolean()) {
+                node.view = readView();
+            }
+            return node;
+        }
+
+        @NonNull
+        private Spectrum.ViewNode readView() throws IOException {
+            final Spectrum.ViewNode node = Spectrum.ViewNode.obtain();
+            node.classLink = readClassLink();
+            node.idName = readString();
+            node.inspection = readString();
+            node.visibility = input.readByte();
+            final int flags = input.readByte();
+            node.viewGroup = (flags & VIEW_GROUP) != 0;
+            node.attached = (flags & VIEW_ATTACHED) != 0;
+            node.stale = (flags & VIEW_STALE) != 0;
+            node.hasBounds = (flags & VIEW_BOUNDS) != 0;
+            if (node.hasBounds) {
+                node.left = readSignedVarInt();
+                node.top = readSignedVarInt();
+                node.right = node.left + readSignedVarInt();
+                node.bottom = node.top + readSignedVarInt();
+            }
+            if ((flags & VIEW_CULLED) != 0) {
+                node.culledDescendants = readVarInt();
+            }
+            final int fragments = readVarInt();
+            for (int i = 0; i < fragments; i++) {
+                node.fragments.add(readFragment());
+            }
+            final int children = readVarInt();
+            for (int i = 0; i < children; i++) {
+                node.child.add(readView());
+            }
+            return node;
+        }
+
+        @NonNull
+        private String readClassLink() throws IOException {
+            final String className = readString();
+            final boolean kotlin = (input.readByte() & CLASS_KOTLIN) != 0;
+            if (className == null) {
+                throw new IOException("Corrupted Spectrum hierarchy record");
+            }
+            final String key = kotlin ? className + ".kt" : className;
+            String link = classLinks.get(key);
+            if (link == null) {
+                link = Spectrum.buildClassLink(className, kotlin);
+                classLinks.put(key, link);
+            }
+            return link;
+        }
+
+        @Nullable
+        private String readString() throws IOException {
+            final int reference = readVarInt();
+            if (reference == 0) return null;
+            if (reference <= strings.size()) {
+                return strings.get(reference - 1);
+            }
+            if (reference != strings.size() + 1) {
+                throw new IOException("Corrupted Spectrum hierarchy record");
+            }
+            final byte[] bytes = new byte[readVarInt()];
+            input.readFully(bytes);
+            final String value = new String(bytes, UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private int readSignedVarInt() throws IOException {
+            final int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = input.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Corrupted Spectrum hierarchy record");
+        }
+    }
+
+    // endregion
+
+    /**
+     * Lets gzip stream be finished and closed without closing stream of the caller.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(@NonNull OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
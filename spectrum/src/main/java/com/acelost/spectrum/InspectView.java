@@ -0,0 +1,30 @@
+package com.acelost.spectrum;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares properties printed for views of given class. Processed by {@code spectrum-processor},
+ * which generates typed {@link Spectrum.ViewInspector} calling getters directly and registers it on init.
+ *
+ * <pre>
+ * &#64;InspectView(value = ImageView.class, properties = {"getScaleType", "getAlpha", "getWidth"})
+ * class ImageViewInspection { }
+ * </pre>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface InspectView {
+
+    /**
+     * Class of inspected views, annotated class itself by default.
+     */
+    Class<?> value() default Void.class;
+
+    /**
+     * Names of public no-argument methods printed for every inspected view.
+     */
+    String[] properties();
+}
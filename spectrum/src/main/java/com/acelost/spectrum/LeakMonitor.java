@@ -0,0 +1,257 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional retention monitor. Watches every destroyed activity and detached fragment with a weak reference
+ * and reports instances which are still reachable after a grace period and a GC hint.
+ *
+ * Leaks are printed to logcat once per instance and listed in {@code LEAKS} section of every report.
+ */
+public final class LeakMonitor {
+
+    private static final long DEFAULT_GRACE_PERIOD_MS = 5000;
+
+    private static LeakMonitor instance;
+
+    private final long gracePeriodMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final List<WatchedReference> watched = new ArrayList<>();
+    private final HandlerThread gcThread = new HandlerThread("Spectrum-LeakMonitor");
+    private Handler gcHandler;
+    private boolean checkScheduled;
+
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkScheduled = false;
+            check();
+        }
+    };
+
+    private final Runnable gcRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Same hint as used by leak detectors, gc alone doesn't guarantee weak references are enqueued
+            Runtime.getRuntime().gc();
+            SystemClock.sleep(100);
+            System.runFinalization();
+            handler.post(analyzeRunnable);
+        }
+    };
+
+    private final Runnable analyzeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            analyze();
+        }
+    };
+
+    private final Spectrum.Extension extension = new Spectrum.Extension() {
+        @Override
+        void onActivityDestroyed(@NonNull Activity activity) {
+            watch(activity, "Activity");
+        }
+
+        @Override
+        void onFragmentDetached(@NonNull Fragment fragment) {
+            watch(fragment, "Fragment");
+        }
+
+        @Override
+        void appendReport(@NonNull Spectrum.OutputBuilder output) {
+            appendLeaks(output);
+        }
+    };
+
+    private LeakMonitor(long gracePeriodMs) {
+        this.gracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * Start watching with default grace period.
+     */
+    @MainThread
+    public static void start() {
+        start(DEFAULT_GRACE_PERIOD_MS);
+    }
+
+    /**
+     * Start watching. Instance is considered leaked if it is reachable longer than grace period after destroy.
+     */
+    @MainThread
+    public static void start(long gracePeriodMs) {
+        if (instance != null) {
+            if (instance.gracePeriodMs == gracePeriodMs) return;
+            stop();
+        }
+        instance = new LeakMonitor(gracePeriodMs);
+        instance.open();
+    }
+
+    /**
+     * Stop watching and forget all watched instances.
+     */
+    @MainThread
+    public static void stop() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    static boolean isEnabledByResources(@NonNull Context context) {
+        final int id = context.getResources().getIdentifier("spectrum_leak_monitor", "bool", context.getPackageName());
+        return id != 0 && context.getResources().getBoolean(id);
+    }
+
+    private void open() {
+        gcThread.start();
+        gcHandler = new Handler(gcThread.getLooper());
+        Spectrum.attach(extension);
+    }
+
+    private void close() {
+        Spectrum.detach(extension);
+        handler.removeCallbacks(checkRunnable);
+        handler.removeCallbacks(analyzeRunnable);
+        gcThread.quit();
+        watched.clear();
+    }
+
+    private void watch(@NonNull Object instance, @NonNull String kind) {
+        watched.add(new WatchedReference(instance, kind, SystemClock.uptimeMillis(), queue));
+        scheduleCheck(gracePeriodMs);
+    }
+
+    private void scheduleCheck(long delay) {
+        if (checkScheduled) return;
+        checkScheduled = true;
+        handler.postDelayed(checkRunnable, delay);
+    }
+
+    private void check() {
+        removeCollected();
+        if (hasExpired()) {
+            gcHandler.post(gcRunnable);
+        } else if (hasPending()) {
+            scheduleCheck(gracePeriodMs);
+        }
+    }
+
+    private void analyze() {
+        removeCollected();
+        final long now = SystemClock.uptimeMillis();
+        List<WatchedReference> leaks = null;
+        for (WatchedReference reference : watched) {
+            if (reference.leaked || now - reference.watchTime < gracePeriodMs) continue;
+            final Object referent = reference.get();
+            if (referent instanceof Fragment && ((Fragment) referent).isAdded()) {
+                // Fragment was attached again, e.g. retained instance after configuration change
+                reference.watchTime = now;
+                continue;
+            }
+            reference.leaked = true;
+            if (leaks == null) {
+                leaks = new ArrayList<>();
+            }
+            leaks.add(reference);
+        }
+        if (leaks != null) {
+            for (WatchedReference leak : leaks) {
+                Log.w(Spectrum.getLogTag(), leak.kind + " " + leak.className + " is still reachable "
+                        + (now - leak.watchTime) + "ms after destroy");
+            }
+        }
+        if (hasPending()) {
+            scheduleCheck(gracePeriodMs);
+        }
+    }
+
+    private void removeCollected() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            watched.remove(reference);
+        }
+    }
+
+    private boolean hasExpired() {
+        final long now = SystemClock.uptimeMillis();
+        for (WatchedReference reference : watched) {
+            if (!reference.leaked && now - reference.watchTime >= gracePeriodMs) return true;
+        }
+        return false;
+    }
+
+    private boolean hasPending() {
+        for (WatchedReference reference : watched) {
+            if (!reference.leaked) return true;
+        }
+        return false;
+    }
+
+    private void appendLeaks(@NonNull Spectrum.OutputBuilder output) {
+        removeCollected();
+        final Map<String, int[]> counts = new HashMap<>();
+        for (WatchedReference reference : watched) {
+            if (!reference.leaked) continue;
+            final String key = reference.kind + " " + reference.className;
+            final int[] count = counts.get(key);
+            if (count != null) {
+                count[0]++;
+            } else {
+                counts.put(key, new int[] { 1 });
+            }
+        }
+        if (counts.isEmpty()) return;
+        final List<Map.Entry<String, int[]>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+            @Override
+            public int compare(Map.Entry<String, int[]> left, Map.Entry<String, int[]> right) {
+                return right.getValue()[0] - left.getValue()[0];
+            }
+        });
+        output.newline().append("LEAKS:\n");
+        for (Map.Entry<String, int[]> entry : entries) {
+            output.append(" - ").append(entry.getKey()).append(" ×").append(entry.getValue()[0]).newline();
+        }
+    }
+
+    private static class WatchedReference extends WeakReference<Object> {
+        @NonNull
+        final String kind;
+        // Class name is kept separately, referent is unavailable once collected
+        @NonNull
+        final String className;
+        long watchTime;
+        boolean leaked;
+
+        WatchedReference(@NonNull Object referent, @NonNull String kind, long watchTime,
+                         @NonNull ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.kind = kind;
+            this.className = referent.getClass().getName();
+            this.watchTime = watchTime;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.acelost.spectrum;
+
+import android.content.Context;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Optional history of reported hierarchies for the last few minutes.
+ *
+ * Only the oldest retained hierarchy is stored in full, every next report is stored as a delta
+ * of rendered hierarchy lines, one line per node: ranges of replaced lines found by {@link Diff}.
+ * Detected changes are kept in a journal,
+ * so the hierarchy can be reconstructed at any moment or between any two journal events.
+ */
+public final class SnapshotHistory {
+
+    private static final long DEFAULT_DURATION_MS = 3 * 60 * 1000;
+    private static final int MAX_DELTAS = 500;
+    private static final int MAX_EVENTS = 2000;
+    // Reports differing in more lines are stored as one replaced range
+    private static final int MAX_DIFF_EDITS = 1000;
+
+    private static SnapshotHistory instance;
+
+    private final long durationMs;
+    // Oldest retained hierarchy, deltas are applied forward starting from it
+    private List<String> keyframe;
+    private long keyframeTime;
+    private final ArrayDeque<Delta> deltas = new ArrayDeque<>();
+    // Latest hierarchy, next report is diffed against it
+    private List<String> latest;
+    final ArrayDeque<Event> journal = new ArrayDeque<>();
+
+    private final Spectrum.Extension extension = new Spectrum.Extension() {
+        @Override
+        void onChangesDetected(@NonNull String changeDescription) {
+            onEvent(changeDescription, System.currentTimeMillis());
+        }
+
+        @Override
+        boolean needsHierarchyLines() {
+            return true;
+        }
+
+        @Override
+        void onHierarchyReported(@NonNull List<String> lines) {
+            onSnapshot(lines, System.currentTimeMillis());
+        }
+    };
+
+    SnapshotHistory(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * Start recording with default duration.
+     */
+    @MainThread
+    public static void start() {
+        start(DEFAULT_DURATION_MS);
+    }
+
+    /**
+     * Start recording. Hierarchies and events older than given duration are dropped.
+     */
+    @MainThread
+    public static void start(long durationMs) {
+        if (instance != null) {
+            if (instance.durationMs == durationMs) return;
+            stop();
+        }
+        instance = new SnapshotHistory(durationMs);
+        Spectrum.attach(instance.extension);
+    }
+
+    /**
+     * Stop recording and drop recorded history.
+     */
+    @MainThread
+    public static void stop() {
+        if (instance != null) {
+            Spectrum.detach(instance.extension);
+            instance = null;
+        }
+    }
+
+    /**
+     * Hierarchy reported last at or before given time, null if nothing was recorded by then.
+     *
+     * @param timeMillis time in {@link System#currentTimeMillis()} base.
+     */
+    @Nullable
+    @MainThread
+    public static Snapshot snapshotAt(long timeMillis) {
+        return instance != null ? instance.reconstruct(timeMillis) : null;
+    }
+
+    /**
+     * Hierarchies visible from the first event till the second one: state at the first event
+     * followed by every hierarchy reported until the second event.
+     */
+    @NonNull
+    @MainThread
+    public static List<Snapshot> snapshotsBetween(@NonNull Event from, @NonNull Event to) {
+        final List<Snapshot> snapshots = new ArrayList<>();
+        if (instance != null) {
+            instance.reconstruct(from.time, to.time, snapshots);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Detected changes in order of detection.
+     */
+    @NonNull
+    @MainThread
+    public static List<Event> journal() {
+        return instance != null ? new ArrayList<>(instance.journal) : new ArrayList<Event>();
+    }
+
+    static boolean isEnabledByResources(@NonNull Context context) {
+        final int id = context.getResources().getIdentifier("spectrum_snapshot_history", "bool", context.getPackageName());
+        return id != 0 && context.getResources().getBoolean(id);
+    }
+
+    void onEvent(@NonNull String description, long now) {
+        journal.addLast(new Event(now, description));
+        trim(now);
+    }
+
+    void onSnapshot(@NonNull List<String> lines, long now) {
+        if (keyframe == null) {
+            keyframe = lines;
+            keyframeTime = now;
+        } else {
+            final Delta delta = diff(latest, lines, now);
+            if (delta == null) return;
+            deltas.addLast(delta);
+        }
+        latest = lines;
+        trim(now);
+    }
+
+    /**
+     * Drops deltas and events older than duration, the same as {@link #snapshotAt(long)} treats time:
+     * state before a delta made at the threshold is still retained.
+     */
+    private void trim(long now) {
+        final long threshold = now - durationMs;
+        while (!deltas.isEmpty() && (deltas.size() > MAX_DELTAS || deltas.peekFirst().time < threshold)) {
+            final Delta delta = deltas.pollFirst();
+            final List<String> merged = keyframe == latest ? new ArrayList<>(keyframe) : keyframe;
+            delta.apply(merged);
+            keyframe = deltas.isEmpty() ? latest : merged;
+            keyframeTime = delta.time;
+        }
+        while (!journal.isEmpty() && (journal.size() > MAX_EVENTS || journal.peekFirst().time < threshold)) {
+            journal.pollFirst();
+        }
+    }
+
+    @Nullable
+    Snapshot reconstruct(long time) {
+        if (keyframe == null || time < keyframeTime) return null;
+        final List<String> lines = new ArrayList<>(keyframe);
+        long snapshotTime = keyframeTime;
+        for (Delta delta : deltas) {
+            if (delta.time > time) break;
+            delta.apply(lines);
+            snapshotTime = delta.time;
+        }
+        return new Snapshot(snapshotTime, lines);
+    }
+
+    void reconstruct(long from, long to, @NonNull List<Snapshot> snapshots) {
+        if (keyframe == null || to < from) return;
+        final List<String> lines = new ArrayList<>(keyframe);
+        long snapshotTime = keyframeTime;
+        final Iterator<Delta> iterator = deltas.iterator();
+        Delta next = iterator.hasNext() ? iterator.next() : null;
+        while (next != null && next.time <= from) {
+            next.apply(lines);
+            snapshotTime = next.time;
+            next = iterator.hasNext() ? iterator.next() : null;
+        }
+        if (snapshotTime <= from) {
+            snapshots.add(new Snapshot(snapshotTime, lines));
+        }
+        while (next != null && next.time <= to) {
+            next.apply(lines);
+            snapshots.add(new Snapshot(next.time, lines));
+            next = iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    @Nullable
+    private static Delta diff(@NonNull List<String> before, @NonNull List<String> after, long time) {
+        final List<Diff.Hunk> hunks = Diff.compute(before, after, MAX_DIFF_EDITS);
+        if (hunks.isEmpty()) return null;
+        final int size = hunks.size();
+        final int[] starts = new int[size];
+        final int[] removed = new int[size];
+        final String[][] inserted = new String[size][];
+        for (int i = 0; i < size; i++) {
+            final Diff.Hunk hunk = hunks.get(i);
+            starts[i] = hunk.start;
+            removed[i] = hunk.removed;
+            inserted[i] = after.subList(hunk.insertStart, hunk.insertStart + hunk.inserted).toArray(new String[0]);
+        }
+        return new Delta(time, starts, removed, inserted);
+    }
+
+    /**
+     * Replaced ranges ordered by start in lines of the previous hierarchy.
+     */
+    private static class Delta {
+        final long time;
+        @NonNull
+        final int[] starts;
+        @NonNull
+        final int[] removed;
+        @NonNull
+        final String[][] inserted;
+
+        Delta(long time, @NonNull int[] starts, @NonNull int[] removed, @NonNull String[][] inserted) {
+            this.time = time;
+            this.starts = starts;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        void apply(@NonNull List<String> lines) {
+            // From the end, so that starts of preceding ranges stay valid
+            for (int i = starts.length - 1; i >= 0; i--) {
+                lines.subList(starts[i], starts[i] + removed[i]).clear();
+                lines.addAll(starts[i], Arrays.asList(inserted[i]));
+            }
+        }
+    }
+
+    /**
+     * Change detected by Spectrum.
+     */
+    public static final class Event {
+        public final long time;
+        @NonNull
+        public final String description;
+
+        Event(long time, @NonNull String description) {
+            this.time = time;
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + description;
+        }
+    }
+
+    /**
+     * Hierarchy section of a report as it was printed at given time.
+     */
+    public static final class Snapshot {
+        public final long time;
+        @NonNull
+        public final String hierarchy;
+
+        Snapshot(long time, @NonNull List<String> lines) {
+            this.time = time;
+            final StringBuilder builder = new StringBuilder();
+            for (String line : lines) {
+                builder.append(line);
+            }
+            this.hierarchy = builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return hierarchy;
+        }
+    }
+}
@@ -1,22 +1,50 @@
 package com.acelost.spectrum;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.DrawableContainer;
+import android.graphics.drawable.LayerDrawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.lang.annotation.Annotation;
+import java.text.DecimalFormatSymbols;
 import java.lang.ref.WeakReference;
 import java.util.*;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.text.TextUtils;
 import android.util.TypedValue;
 import android.view.*;
+import android.view.accessibility.AccessibilityEvent;
+import android.widget.AdapterView;
+import android.widget.HorizontalScrollView;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
 import android.widget.TextView;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
@@ -45,6 +73,41 @@ public class Spectrum {
      */
     public static class Configuration {
 
+        /**
+         * Capture every observed activity.
+         */
+        public static final int SCOPE_ALL = 0;
+
+        /**
+         * Capture only resumed or focused activity.
+         */
+        public static final int SCOPE_FOREGROUND = 1;
+
+        /**
+         * Capture only top activities of the foreground task (see {@link #reportTopActivities(int)}).
+         */
+        public static final int SCOPE_TOP_ACTIVITIES = 2;
+
+        /**
+         * Print full hierarchy of every captured activity.
+         */
+        public static final int MODE_HIERARCHY = 0;
+
+        /**
+         * Print only hierarchy statistics of every captured activity (see {@link Spectrum#exportStatistics()}).
+         */
+        public static final int MODE_STATISTICS = 1;
+
+        /**
+         * Detect report gesture by wrapping {@link Window.Callback} of activity window, no views are added.
+         */
+        public static final int GESTURE_WINDOW_CALLBACK = 0;
+
+        /**
+         * Detect report gesture by transparent view added on top of activity decor view.
+         */
+        public static final int GESTURE_OVERLAY_VIEW = 1;
+
         private static String LOG_TAG = "Spectrum";
         private static int LOG_LEVEL = Log.DEBUG;
         private static boolean APPEND_PACKAGES = false;
@@ -53,8 +116,26 @@ public class Spectrum {
         private static boolean SHOW_VIEW_HIERARCHY = true;
         private static boolean AUTO_REPORTING = true;
         private static boolean GESTURE_REPORTING_ENABLED = true;
+        private static int GESTURE_MODE = GESTURE_WINDOW_CALLBACK;
         private static boolean SAMPLE_REPORTING = true;
         private static int SAMPLE_REPORTING_MS = 500;
+        private static int REPORT_SCOPE = SCOPE_ALL;
+        private static int REPORT_TOP_ACTIVITIES = 1;
+        private static int TEXT_MAX_LENGTH = 40;
+        private static int TEXT_CHARS_BUDGET = 20000;
+        private static int TEXT_TIME_BUDGET_MS = 20;
+        private static boolean SLICED_CAPTURE = false;
+        private static int CAPTURE_SLICE_BUDGET_MS = 4;
+        private static int REPORT_MODE = MODE_HIERARCHY;
+        private static int STATISTICS_HISTORY_SIZE = 500;
+        private static int LAYOUT_THRASH_THRESHOLD = 10;
+        private static int EMISSION_BYTES_PER_SECOND = 0;
+        private static boolean PARALLEL_FORMATTING = false;
+        private static boolean CULL_HIDDEN_VIEWS = false;
+        private static boolean LAYOUT_ANALYSIS = false;
+        private static boolean DRAWABLE_MEMORY = false;
+        private static boolean TIMINGS = false;
+        private static boolean FRAGMENT_TIMINGS = false;
 
         /**
          * Set log tag you want to use for output.
@@ -128,6 +209,16 @@ public class Spectrum {
             return this;
         }
 
+        /**
+         * How to detect report gesture: {@link #GESTURE_WINDOW_CALLBACK} or {@link #GESTURE_OVERLAY_VIEW}.
+         * Applied to activities explored after the call.
+         */
+        @NonNull
+        public Configuration gestureMode(int mode) {
+            Configuration.GESTURE_MODE = mode;
+            return this;
+        }
+
         /**
          * Whether to sample reporting or build new report after any changes.
          */
@@ -137,6 +228,167 @@ public class Spectrum {
             return this;
         }
 
+        /**
+         * Which activities to capture: {@link #SCOPE_ALL}, {@link #SCOPE_FOREGROUND}
+         * or {@link #SCOPE_TOP_ACTIVITIES}. Activities out of scope are reported as a single line.
+         */
+        @NonNull
+        public Configuration reportScope(int scope) {
+            Configuration.REPORT_SCOPE = scope;
+            return this;
+        }
+
+        /**
+         * Count of top activities to capture in {@link #SCOPE_TOP_ACTIVITIES} scope.
+         */
+        @NonNull
+        public Configuration reportTopActivities(int count) {
+            Configuration.REPORT_TOP_ACTIVITIES = count;
+            return this;
+        }
+
+        /**
+         * Max length of text printed for {@link TextView} nodes. Longer texts are truncated.
+         */
+        @NonNull
+        public Configuration textMaxLength(int length) {
+            Configuration.TEXT_MAX_LENGTH = length;
+            return this;
+        }
+
+        /**
+         * Max count of text characters captured in one report. Texts over budget are skipped.
+         */
+        @NonNull
+        public Configuration textCharsBudget(int chars) {
+            Configuration.TEXT_CHARS_BUDGET = chars;
+            return this;
+        }
+
+        /**
+         * Max time spent on text capture in one report. Texts over budget are skipped.
+         */
+        @NonNull
+        public Configuration textTimeBudget(int ms) {
+            Configuration.TEXT_TIME_BUDGET_MS = ms;
+            return this;
+        }
+
+        /**
+         * Whether to capture hierarchy in time-boxed slices across frames instead of one pass.
+         */
+        @NonNull
+        public Configuration slicedCapture(boolean sliced) {
+            Configuration.SLICED_CAPTURE = sliced;
+            return this;
+        }
+
+        /**
+         * Max time of one capture slice (see {@link #slicedCapture(boolean)}).
+         */
+        @NonNull
+        public Configuration captureSliceBudget(int ms) {
+            Configuration.CAPTURE_SLICE_BUDGET_MS = ms;
+            return this;
+        }
+
+        /**
+         * What to print in report: {@link #MODE_HIERARCHY} or {@link #MODE_STATISTICS}.
+         */
+        @NonNull
+        public Configuration reportMode(int mode) {
+            Configuration.REPORT_MODE = mode;
+            return this;
+        }
+
+        /**
+         * Max count of statistics records kept for export, oldest records are dropped first.
+         */
+        @NonNull
+        public Configuration statisticsHistorySize(int size) {
+            Configuration.STATISTICS_HISTORY_SIZE = size;
+            return this;
+        }
+
+        /**
+         * Count of layout passes per second of idle activity considered as layout thrash, 0 to disable detection.
+         */
+        @NonNull
+        public Configuration layoutThrashThreshold(int passesPerSecond) {
+            Configuration.LAYOUT_THRASH_THRESHOLD = passesPerSecond;
+            return this;
+        }
+
+        /**
+         * Max rate of report output in logcat, 0 to print every report at once. When set, report chunks are
+         * printed from background thread with {@code [#report chunk/total]} headers. Chunks which logcat fails
+         * to write are retried and reported, lines dropped by logd later are found by gaps in headers.
+         */
+        @NonNull
+        public Configuration emissionRate(int bytesPerSecond) {
+            Configuration.EMISSION_BYTES_PER_SECOND = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Whether to format large subtrees of captured hierarchy in parallel on background threads.
+         */
+        @NonNull
+        public Configuration parallelFormatting(boolean parallel) {
+            Configuration.PARALLEL_FORMATTING = parallel;
+            return this;
+        }
+
+        /**
+         * Whether to skip capturing subtrees of views which are gone, invisible or outside of window
+         * visible rect. Such views are reported as a single line with count of hidden descendants.
+         */
+        @NonNull
+        public Configuration cullHiddenViews(boolean cull) {
+            Configuration.CULL_HIDDEN_VIEWS = cull;
+            return this;
+        }
+
+        /**
+         * Whether to analyze captured hierarchy for layout anti-patterns: redundant nesting, excessive depth,
+         * very wide view groups and nested weights. Findings are reported in {@code LAYOUT ANALYSIS} section.
+         */
+        @NonNull
+        public Configuration layoutAnalysis(boolean analyze) {
+            Configuration.LAYOUT_ANALYSIS = analyze;
+            return this;
+        }
+
+        /**
+         * Whether to annotate views with memory held by bitmaps of their drawables and backgrounds
+         * and to report totals per activity and fragment in {@code DRAWABLE MEMORY} section.
+         */
+        @NonNull
+        public Configuration drawableMemory(boolean inspect) {
+            Configuration.DRAWABLE_MEMORY = inspect;
+            return this;
+        }
+
+        /**
+         * Whether to print {@code TIMING} section with time to initial display and navigation percentiles.
+         * Timings are measured either way and are available via {@link Spectrum#exportTimings()}.
+         */
+        @NonNull
+        public Configuration timings(boolean report) {
+            Configuration.TIMINGS = report;
+            return this;
+        }
+
+        /**
+         * Whether to print {@code FRAGMENT TIMING} section with the slowest fragment classes.
+         * Histograms are recorded either way and are available via {@link Spectrum#exportFragmentTimings()}.
+         */
+        @NonNull
+        public Configuration fragmentTimings(boolean report) {
+            Configuration.FRAGMENT_TIMINGS = report;
+            return this;
+        }
+
         private static void parseConfigFromResources(@NonNull Context context) {
             int id;
             if ((id = getStringResId(context, "spectrum_log_tag")) != 0) {
@@ -163,9 +415,63 @@ public class Spectrum {
             if ((id = getBoolResId(context, "spectrum_gesture_reporting")) != 0) {
                 Configuration.GESTURE_REPORTING_ENABLED = context.getResources().getBoolean(id);
             }
+            if ((id = getIntResId(context, "spectrum_gesture_mode")) != 0) {
+                Configuration.GESTURE_MODE = context.getResources().getInteger(id);
+            }
             if ((id = getBoolResId(context, "spectrum_sample_reporting")) != 0) {
                 Configuration.SAMPLE_REPORTING = context.getResources().getBoolean(id);
             }
+            if ((id = getIntResId(context, "spectrum_report_scope")) != 0) {
+                Configuration.REPORT_SCOPE = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_report_top_activities")) != 0) {
+                Configuration.REPORT_TOP_ACTIVITIES = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_text_max_length")) != 0) {
+                Configuration.TEXT_MAX_LENGTH = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_text_chars_budget")) != 0) {
+                Configuration.TEXT_CHARS_BUDGET = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_text_time_budget_ms")) != 0) {
+                Configuration.TEXT_TIME_BUDGET_MS = context.getResources().getInteger(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_sliced_capture")) != 0) {
+                Configuration.SLICED_CAPTURE = context.getResources().getBoolean(id);
+            }
+            if ((id = getIntResId(context, "spectrum_capture_slice_budget_ms")) != 0) {
+                Configuration.CAPTURE_SLICE_BUDGET_MS = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_report_mode")) != 0) {
+                Configuration.REPORT_MODE = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_statistics_history_size")) != 0) {
+                Configuration.STATISTICS_HISTORY_SIZE = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_layout_thrash_threshold")) != 0) {
+                Configuration.LAYOUT_THRASH_THRESHOLD = context.getResources().getInteger(id);
+            }
+            if ((id = getIntResId(context, "spectrum_emission_bytes_per_second")) != 0) {
+                Configuration.EMISSION_BYTES_PER_SECOND = context.getResources().getInteger(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_parallel_formatting")) != 0) {
+                Configuration.PARALLEL_FORMATTING = context.getResources().getBoolean(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_cull_hidden_views")) != 0) {
+                Configuration.CULL_HIDDEN_VIEWS = context.getResources().getBoolean(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_layout_analysis")) != 0) {
+                Configuration.LAYOUT_ANALYSIS = context.getResources().getBoolean(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_drawable_memory")) != 0) {
+                Configuration.DRAWABLE_MEMORY = context.getResources().getBoolean(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_timings")) != 0) {
+                Configuration.TIMINGS = context.getResources().getBoolean(id);
+            }
+            if ((id = getBoolResId(context, "spectrum_fragment_timings")) != 0) {
+                Configuration.FRAGMENT_TIMINGS = context.getResources().getBoolean(id);
+            }
         }
 
         private static int getStringResId(@NonNull Context context, @NonNull String name) {
@@ -189,10 +495,17 @@ public class Spectrum {
     private static final String TITLE_SPECTRUM_STATE_REPORT =   "                                          SPECTRUM REPORT                                           \n";
     private static final String HEADER_HIERARCHY = "HIERARCHY:\n";
     private static final String HEADER_CHANGES = "CHANGES:\n";
+    private static final String HEADER_STATISTICS = "STATISTICS:\n";
+    private static final String HEADER_LAYOUT_THRASH = "LAYOUT THRASH:\n";
+    private static final String HEADER_LAYOUT_ANALYSIS = "LAYOUT ANALYSIS:\n";
+    private static final String HEADER_DRAWABLE_MEMORY = "DRAWABLE MEMORY:\n";
+    private static final String HEADER_TIMING = "TIMING:\n";
+    private static final String HEADER_FRAGMENT_TIMING = "FRAGMENT TIMING:\n";
 
     private static final int LOGCAT_BUFFER_SIZE = 4000;
 
-    private static boolean initialized = false;
+    // Volatile as it guards events posted from any thread
+    private static volatile boolean initialized = false;
 
     private static WeakReference<Application> applicationRef;
 
@@ -204,14 +517,45 @@ public class Spectrum {
 
     private static List<ViewInspector> viewInspectors;
 
+    private static TextViewInspector textViewInspector;
+    private static DrawableInspector drawableInspector;
+
+    private static final List<Extension> extensions = new ArrayList<>(1);
+
     private static Handler handler;
 
     private static List<String> pendingChanges;
 
+    private static final int MAX_PENDING_EVENTS = 1000;
+
+    // Custom events posted from any thread, drained on main thread
+    private static final ConcurrentLinkedQueue<String> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger pendingEventsCount = new AtomicInteger();
+
+    private static final AtomicBoolean eventsDrainScheduled = new AtomicBoolean();
+
+    private static final Runnable drainEventsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            eventsDrainScheduled.set(false);
+            if (drainEvents()) {
+                scheduleAutoReporting();
+            }
+        }
+    };
+
     private static Runnable reportRunnable;
 
     private static long scheduledReportTime = 0;
 
+    // Incremented on every detected change, used to find out hierarchy mutations during sliced capture
+    private static int changesGeneration = 0;
+
+    private static SlicedCapture slicedCapture;
+
+    private static final List<HierarchyStatistics> statisticsHistory = new ArrayList<>();
+
     /**
      * Start monitoring of application.
      */
@@ -241,9 +585,10 @@ public class Spectrum {
 
         activities.put(activity, null);
 
+        ActivityObserver activityObserver = null;
         if (activity instanceof LifecycleOwner) {
             final LifecycleOwner lifecycleOwner = (LifecycleOwner) activity;
-            final LifecycleObserver activityObserver = new ActivityObserver(activity);
+            activityObserver = new ActivityObserver(activity);
             lifecycleOwner.getLifecycle().addObserver(activityObserver);
         } else {
             Log.e(Configuration.LOG_TAG,
@@ -252,11 +597,24 @@ public class Spectrum {
         }
         if (activity instanceof FragmentActivity) {
             final FragmentManager fragmentManager = ((FragmentActivity) activity).getSupportFragmentManager();
-            fragmentManager.registerFragmentLifecycleCallbacks(new FragmentObserver(), true);
+            final FragmentObserver fragmentObserver = new FragmentObserver(activityObserver, fragmentManager);
+            fragmentManager.registerFragmentLifecycleCallbacks(fragmentObserver, true);
+            if (activityObserver != null) {
+                activityObserver.fragmentObserver = fragmentObserver;
+            }
         }
-        if (Configuration.GESTURE_REPORTING_ENABLED) {
+        final boolean overlayGestures = Configuration.GESTURE_REPORTING_ENABLED
+                && Configuration.GESTURE_MODE == Configuration.GESTURE_OVERLAY_VIEW;
+        if (overlayGestures) {
             inflateGestureDetectorSurface(activity);
         }
+        // Callback also tracks input for layout thrash detection
+        if (!overlayGestures && (Configuration.GESTURE_REPORTING_ENABLED || Configuration.LAYOUT_THRASH_THRESHOLD > 0)) {
+            final ReportGestureCallback windowCallback = installGestureDetectorCallback(activity, null);
+            if (activityObserver != null) {
+                activityObserver.windowCallback = windowCallback;
+            }
+        }
     }
 
     /**
@@ -264,6 +622,13 @@ public class Spectrum {
      */
     @NonNull
     public static Configuration configure() {
+        classLinks.clear();
+        if (initialized) {
+            // Cached output of stopped activities may not match new configuration
+            for (ActivityObserver observer : activityObservers) {
+                observer.invalidateCache();
+            }
+        }
         return new Configuration();
     }
 
@@ -273,7 +638,11 @@ public class Spectrum {
             activities = new WeakHashMap<>();
             activityObservers = new ArrayList<>();
             viewInspectors = new ArrayList<>();
-            register(new TextViewInspector());
+            textViewInspector = new TextViewInspector();
+            register(textViewInspector);
+            drawableInspector = new DrawableInspector();
+            register(drawableInspector);
+            registerGeneratedInspectors();
             handler = new Handler(Looper.getMainLooper());
             pendingChanges = new ArrayList<>();
             reportRunnable = new Runnable() {
@@ -282,7 +651,10 @@ public class Spectrum {
                     report();
                 }
             };
+            tmpRect = new Rect();
+            tmpPoint = new Point();
             Configuration.parseConfigFromResources(context);
+            initUptime = SystemClock.uptimeMillis();
             initialized = true;
         }
         return true;
@@ -300,11 +672,19 @@ public class Spectrum {
             scheduleReporting(0);
             return;
         }
+        if (Configuration.REPORT_MODE == Configuration.MODE_STATISTICS) {
+            reportStatistics();
+            return;
+        }
+        if (Configuration.SLICED_CAPTURE) {
+            startSlicedCapture();
+            return;
+        }
         final long startBuildTime = System.nanoTime();
         final ApplicationStateTree tree = buildAppStateTree();
-        final List<String> output = buildReport(tree, System.nanoTime() - startBuildTime);
-        print(output);
-        recycleAppStateTree(tree);
+        final long buildTimeNs = System.nanoTime() - startBuildTime;
+        notifyReportPhase("capture", startBuildTime);
+        printReport(tree, buildTimeNs);
     }
 
     private static void scheduleReporting(long delay) {
@@ -318,11 +698,54 @@ public class Spectrum {
         }
     }
 
+    /**
+     * Add custom event to CHANGES section of the next report. Safe to call from any thread.
+     */
+    public static void event(@NonNull String description) {
+        if (pendingEventsCount.incrementAndGet() > MAX_PENDING_EVENTS) {
+            // Nobody builds reports, don't grow forever
+            pendingEventsCount.decrementAndGet();
+            return;
+        }
+        pendingEvents.offer(description);
+        // Only first event of a batch posts to main thread, the rest is picked up by the same drain
+        if (initialized && Configuration.AUTO_REPORTING && eventsDrainScheduled.compareAndSet(false, true)) {
+            handler.post(drainEventsRunnable);
+        }
+    }
+
+    /**
+     * @return whether any event was drained.
+     */
+    private static boolean drainEvents() {
+        boolean drained = false;
+        String event;
+        while ((event = pendingEvents.poll()) != null) {
+            pendingEventsCount.decrementAndGet();
+            // Custom events don't mutate hierarchy, so changes generation stays the same
+            addPendingChange(event);
+            drained = true;
+        }
+        return drained;
+    }
+
     private static void notifyChangesDetected(@NonNull String changeDescription) {
+        changesGeneration++;
+        addPendingChange(changeDescription);
+        scheduleAutoReporting();
+    }
+
+    private static void addPendingChange(@NonNull String changeDescription) {
         if (pendingChanges.isEmpty() || !(pendingChanges.get(pendingChanges.size() - 1).equals(changeDescription))) {
             // Append change to pending only if it distinct from last
             pendingChanges.add(changeDescription);
         }
+        for (Extension extension : extensions) {
+            extension.onChangesDetected(changeDescription);
+        }
+    }
+
+    private static void scheduleAutoReporting() {
         // Schedule building report if auto reporting enabled
         if (Configuration.AUTO_REPORTING) {
             if (Configuration.SAMPLE_REPORTING) {
@@ -345,11 +768,115 @@ public class Spectrum {
         viewInspectors.add(inspector);
     }
 
+    /**
+     * Register inspectors generated from {@link InspectView} declarations of all modules applying
+     * spectrum-processor. Looked up once on init, generated inspectors themselves call getters directly.
+     */
+    private static void registerGeneratedInspectors() {
+        final Iterator<ViewInspector> iterator =
+                ServiceLoader.load(ViewInspector.class, Spectrum.class.getClassLoader()).iterator();
+        try {
+            while (iterator.hasNext()) {
+                register(iterator.next());
+            }
+        } catch (ServiceConfigurationError e) {
+            Log.e(Configuration.LOG_TAG, "Failed to register generated view inspectors", e);
+        }
+    }
+
+    // endregion
+
+    // region Extensions
+
+    /**
+     * Hook for optional components living next to Spectrum in the same package.
+     * All callbacks are delivered on the main thread.
+     */
+    abstract static class Extension {
+
+        void onChangesDetected(@NonNull String changeDescription) { /* no-op */ }
+
+        void onActivityStateChanged(@NonNull Activity activity, @NonNull String state) { /* no-op */ }
+
+        void onActivityDestroyed(@NonNull Activity activity) { /* no-op */ }
+
+        void onFragmentAttached(@NonNull Fragment fragment) { /* no-op */ }
+
+        void onFragmentDetached(@NonNull Fragment fragment) { /* no-op */ }
+
+        void onLayout(@NonNull Activity activity) { /* no-op */ }
+
+        /**
+         * Phase of building a report is finished, time in {@link System#nanoTime()} base.
+         */
+        void onReportPhase(@NonNull String phase, long startNs, long endNs) { /* no-op */ }
+
+        /**
+         * Append own section to report, called before changes section.
+         */
+        void appendReport(@NonNull OutputBuilder output) { /* no-op */ }
+
+        /**
+         * Whether {@link #onHierarchyReported(List)} should be called, collecting lines is not free.
+         */
+        boolean needsHierarchyLines() {
+            return false;
+        }
+
+        /**
+         * Lines of hierarchy section of report which is just built.
+         */
+        void onHierarchyReported(@NonNull List<String> lines) { /* no-op */ }
+    }
+
+    @MainThread
+    static void attach(@NonNull Extension extension) {
+        if (!extensions.contains(extension)) {
+            extensions.add(extension);
+        }
+    }
+
+    @MainThread
+    static void detach(@NonNull Extension extension) {
+        extensions.remove(extension);
+    }
+
+    static boolean isInitialized() {
+        return initialized;
+    }
+
+    @NonNull
+    static String getLogTag() {
+        return Configuration.LOG_TAG;
+    }
+
     // endregion
 
     // region Reporting
 
+    private static void printReport(@NonNull ApplicationStateTree tree, long buildTimeNs) {
+        final long startFormatTime = System.nanoTime();
+        final List<String> output = buildReport(tree, buildTimeNs);
+        notifyReportPhase("format", startFormatTime);
+        final long startPrintTime = System.nanoTime();
+        print(output);
+        notifyReportPhase("print", startPrintTime);
+        recycleAppStateTree(tree);
+    }
+
+    private static void notifyReportPhase(@NonNull String phase, long startNs) {
+        if (extensions.isEmpty()) return;
+        final long endNs = System.nanoTime();
+        for (Extension extension : extensions) {
+            extension.onReportPhase(phase, startNs, endNs);
+        }
+    }
+
     private static void print(@NonNull List<String> messages) {
+        if (Configuration.EMISSION_BYTES_PER_SECOND > 0) {
+            emit(messages);
+            return;
+        }
         for (String message : messages) {
             print(message);
         }
@@ -361,56 +888,211 @@ public class Spectrum {
 
     @NonNull
     private static List<String> buildReport(@NonNull ApplicationStateTree tree, long buildTimeNs) {
-        final OutputBuilder output = new OutputBuilder()
-                .append(String.format(Locale.getDefault(), "Report built in %.1f ms\n", buildTimeNs / 1000000f))
+        final OutputBuilder output = new OutputBuilder();
+        appendBuildTime(output, buildTimeNs)
                 .append(OUTPUT_HORIZONTAL_DIVIDER)
                 .append(TITLE_SPECTRUM_STATE_REPORT)
                 .append(HEADER_HIERARCHY);
 
-        for (ActivityNode activityNode : tree.activities) {
-            visitActivity(activityNode, output);
+        final boolean journal = needsHierarchyLines();
+        if (journal) {
+            output.startJournal();
         }
-
-        if (pendingChanges.size() > 0) {
-            output.newline().append(HEADER_CHANGES);
-            for (String change : pendingChanges) {
-                output.append(" - ").append(change).newline();
+        appendHierarchy(tree, output);
+        if (journal) {
+            final List<String> lines = output.stopJournal();
+            for (Extension extension : extensions) {
+                extension.onHierarchyReported(lines);
             }
-            pendingChanges.clear();
         }
 
+        appendLayoutThrash(output);
+        appendLayoutAnalysis(tree, output);
+        appendDrawableMemory(tree, output);
+        appendTimings(output);
+        appendFragmentTimings(output);
+        appendExtensions(output);
+        appendPendingChanges(output);
+
         output.append(OUTPUT_HORIZONTAL_DIVIDER);
         return output.build();
     }
 
-    private static void visitActivity(@NonNull ActivityNode node, @NonNull OutputBuilder output) {
-        final int level = 0;
-        final Activity activity = node.activity;
-
-        indent(output, level)
-                .append("⬟[Activity] ")
-                .append(formatClassLink(activity))
-                .append(" [").append(node.state).append("]")
-                .newline();
+    /**
+     * Report of recorded hierarchy, without sections describing current state of application.
+     */
+    @NonNull
+    static List<String> buildRecordedReport(@NonNull ApplicationStateTree tree) {
+        final OutputBuilder output = new OutputBuilder();
+        output.append(OUTPUT_HORIZONTAL_DIVIDER)
+                .append(TITLE_SPECTRUM_STATE_REPORT)
+                .append(HEADER_HIERARCHY);
+        appendHierarchy(tree, output);
+        output.append(OUTPUT_HORIZONTAL_DIVIDER);
+        return output.build();
+    }
+
+    private static void appendHierarchy(@NonNull ApplicationStateTree tree, @NonNull OutputBuilder output) {
+        if (Configuration.PARALLEL_FORMATTING) {
+            startFormatUnits(tree);
+        }
+        try {
+            for (ActivityNode activityNode : tree.activities) {
+                visitActivity(activityNode, output);
+            }
+        } finally {
+            cancelFormatUnits();
+        }
+    }
+
+    private static boolean needsHierarchyLines() {
+        for (Extension extension : extensions) {
+            if (extension.needsHierarchyLines()) return true;
+        }
+        return false;
+    }
+
+    private static void appendExtensions(@NonNull OutputBuilder output) {
+        for (Extension extension : extensions) {
+            extension.appendReport(output);
+        }
+    }
+
+    private static void appendPendingChanges(@NonNull OutputBuilder output) {
+        drainEvents();
+        if (pendingChanges.size() > 0) {
+            output.newline().append(HEADER_CHANGES);
+            for (String change : pendingChanges) {
+                output.append(" - ").append(change).newline();
+            }
+            pendingChanges.clear();
+        }
+    }
+
+    private static void visitActivity(@NonNull ActivityNode node, @NonNull OutputBuilder output) {
+        if (node.cachedLines != null) {
+            output.appendLines(node.cachedLines);
+            return;
+        }
+        final ActivityObserver observer = node.observer;
+        final boolean cacheable = node.captured && observer != null && observer.isStopped();
+        if (cacheable) {
+            output.startRecording();
+        }
+
+        final int level = 0;
+
+        indent(output, level)
+                .append("⬟[Activity] ")
+                .append(node.classLink)
+                .append(" [").append(node.state).append("]");
+        if (!node.captured) {
+            output.append(" (out of report scope)");
+        }
+        output.newline();
 
         for (FragmentNode fragmentNode : node.fragment) {
-            visitFragment(fragmentNode, level + 2, output);
+            if (!appendFormatUnit(fragmentNode, output)) {
+                visitFragment(fragmentNode, level + 2, output);
+            }
         }
 
         for (ViewNode viewNode : node.views) {
-            visitView(viewNode, level + 2, output);
+            if (!appendFormatUnit(viewNode, output)) {
+                visitView(viewNode, level + 2, output);
+            }
+        }
+
+        if (cacheable) {
+            observer.cachedLines = output.stopRecording();
         }
     }
 
+    /**
+     * Formats captured view node. Reads only detached snapshot, so it's safe to call off main thread.
+     */
     private static void visitView(@NonNull ViewNode node, int level, @NonNull OutputBuilder output) {
-        final View view = node.view;
-        final int visibility = view.getVisibility();
+        final int visibility = node.visibility;
         indent(output, level)
-                .append(view instanceof ViewGroup
+                .append(node.viewGroup
                         ? visibility == View.VISIBLE ? "▸[ViewGroup] " : "▹[ViewGroup]"
                         : visibility == View.VISIBLE ? "●[View] " : "○[View] ")
-                .append(formatClassLink(view));
+                .append(node.classLink);
+
+        if (node.inspection != null) {
+            output.append(node.inspection);
+        }
+
+        if (Configuration.APPEND_VIEW_ID && node.idName != null) {
+            output.append(" [id/").append(node.idName).append("]");
+        }
+
+        if (Configuration.APPEND_VIEW_LOCATION) {
+            if (node.attached) {
+                if (visibility == View.GONE) {
+                    output.append(" [gone]");
+                } else {
+                    appendLocation(output.append(' '), node);
+                }
+            } else {
+                output.append(" [out of layout]");
+            }
+        }
+
+        if (node.stale) {
+            output.append(" [stale]");
+        }
+
+        if (node.culledDescendants > 0) {
+            output.append(" [").append(node.culledDescendants).append(" hidden descendants]");
+        }
+
+        output.newline();
+
+        for (FragmentNode fragmentNode : node.fragments) {
+            if (!appendFormatUnit(fragmentNode, output)) {
+                visitFragment(fragmentNode, level + 1, output);
+            }
+        }
+
+        for (ViewNode viewNode : node.child) {
+            if (!appendFormatUnit(viewNode, output)) {
+                visitView(viewNode, level + 2, output);
+            }
+        }
+    }
+
+    /**
+     * Formats captured fragment node. Reads only detached snapshot, so it's safe to call off main thread.
+     */
+    private static void visitFragment(@NonNull FragmentNode node, int level, @NonNull OutputBuilder output) {
+        indent(output, level)
+                .append(node.dialog
+                        ? "◇[DialogFragment] "
+                        : node.attachedToLayout
+                                ? "■[Fragment] "
+                                : "□[Fragment(out-of-layout)] ")
+                .append(node.classLink);
+        if (node.tag != null) {
+            output.append(" [tag \'").append(node.tag).append("\']");
+        }
+        output.newline();
+
+        // If fragment inside view hierarchy, increase indent by 1 otherwise by 2
+        final int nextLevel = node.view != null ? level + 1 : level + 2;
+
+        for (FragmentNode fragmentNode : node.child) {
+            if (!appendFormatUnit(fragmentNode, output)) {
+                visitFragment(fragmentNode, nextLevel, output);
+            }
+        }
+
+        if (node.view != null && !appendFormatUnit(node.view, output)) {
+            visitView(node.view, nextLevel, output);
+        }
+    }
 
+    private static void inspectView(@NonNull View view, @NonNull OutputBuilder output) {
         final int size = viewInspectors.size();
         for (int i = size - 1; i > -1; i--) {
             final ViewInspector inspector = viewInspectors.get(i);
@@ -418,234 +1100,2194 @@ public class Spectrum {
                 inspector.inspect(view, output);
             }
         }
+    }
+
+    // endregion
+
+    // region ApplicationStateTree building
+
+    @NonNull
+    static ApplicationStateTree buildAppStateTree() {
+        return buildAppStateTree(true, Configuration.APPEND_VIEW_LOCATION);
+    }
+
+    /**
+     * @param useCache whether stopped activities may be reported from cached output instead of capture.
+     * @param captureBounds whether to compute global visible rect of every view node.
+     */
+    @NonNull
+    static ApplicationStateTree buildAppStateTree(boolean useCache, boolean captureBounds) {
+        final ApplicationStateTree tree = ApplicationStateTree.obtain();
+        textViewInspector.resetBudget();
+        drawableInspector.reset();
+        updateReportScope();
+        for (ActivityObserver observer : activityObservers) {
+            final ActivityNode activityNode;
+            if (!observer.inReportScope) {
+                activityNode = buildActivitySummaryNode(observer);
+            } else if (useCache && observer.cachedLines != null) {
+                activityNode = buildActivityCachedNode(observer);
+            } else {
+                activityNode = buildActivityNode(observer, captureBounds);
+            }
+            tree.activities.add(activityNode);
+        }
+        return tree;
+    }
+
+    private static void updateReportScope() {
+        final int size = activityObservers.size();
+        switch (Configuration.REPORT_SCOPE) {
+            case Configuration.SCOPE_FOREGROUND: {
+                boolean found = false;
+                for (ActivityObserver observer : activityObservers) {
+                    observer.inReportScope = observer.isForeground();
+                    found |= observer.inReportScope;
+                }
+                if (!found && size > 0) {
+                    // Nothing is resumed during transition, fallback to the latest activity
+                    activityObservers.get(size - 1).inReportScope = true;
+                }
+                break;
+            }
+            case Configuration.SCOPE_TOP_ACTIVITIES: {
+                int remaining = Configuration.REPORT_TOP_ACTIVITIES;
+                final int taskId = size > 0 ? activityObservers.get(size - 1).activity.getTaskId() : 0;
+                for (int i = size - 1; i >= 0; i--) {
+                    final ActivityObserver observer = activityObservers.get(i);
+                    observer.inReportScope = remaining > 0 && observer.activity.getTaskId() == taskId;
+                    if (observer.inReportScope) remaining--;
+                }
+                break;
+            }
+            default:
+                for (ActivityObserver observer : activityObservers) {
+                    observer.inReportScope = true;
+                }
+                break;
+        }
+    }
+
+    @NonNull
+    private static ActivityNode buildActivitySummaryNode(@NonNull ActivityObserver observer) {
+        final ActivityNode node = ActivityNode.obtain();
+        node.observer = observer;
+        node.activity = observer.activity;
+        node.classLink = formatClassLink(observer.activity);
+        node.state = observer.state;
+        node.captured = false;
+        return node;
+    }
+
+    @NonNull
+    private static ActivityNode buildActivityCachedNode(@NonNull ActivityObserver observer) {
+        final ActivityNode node = ActivityNode.obtain();
+        node.observer = observer;
+        node.activity = observer.activity;
+        node.classLink = formatClassLink(observer.activity);
+        node.state = observer.state;
+        node.cachedLines = observer.cachedLines;
+        return node;
+    }
+
+    @NonNull
+    private static ActivityNode buildActivityNode(@NonNull ActivityObserver observer, boolean captureBounds) {
+        final ActivityNode node = ActivityNode.obtain();
+        node.observer = observer;
+        node.activity = observer.activity;
+        node.classLink = formatClassLink(observer.activity);
+        node.state = observer.state;
+        final Activity activity = observer.activity;
+        final List<FragmentNode> fragments = buildFragmentNodes(observer);
+        if (Configuration.SHOW_VIEW_HIERARCHY) {
+            final ViewGroup container = findContentContainer(activity);
+            if (container != null) {
+                final int count = container.getChildCount();
+                final Map<View, ViewNode> viewIndex = new HashMap<>();
+                final ViewNode containerBounds = captureBounds || Configuration.CULL_HIDDEN_VIEWS
+                        ? buildContainerBounds(container)
+                        : null;
+                for (int i = 0; i < count; i++) {
+                    final ViewNode viewNode = buildViewNode(container.getChildAt(i), containerBounds, viewIndex);
+                    node.views.add(viewNode);
+                }
+                if (containerBounds != null) {
+                    containerBounds.recycle();
+                }
+                mergeFragmentsIntoViews(fragments, viewIndex);
+            }
+        }
+        node.fragment.addAll(fragments);
+        return node;
+    }
+
+    @Nullable
+    private static ViewGroup findContentContainer(@NonNull Activity activity) {
+        final View contentView = activity.getWindow().getDecorView().findViewById(android.R.id.content);
+        return contentView instanceof ViewGroup ? (ViewGroup) contentView : null;
+    }
+
+    /**
+     * @param parent node of parent view with computed bounds or null if bounds are not captured.
+     */
+    @NonNull
+    private static ViewNode buildViewNode(@NonNull View view,
+                                          @Nullable ViewNode parent,
+                                          @NonNull Map<View, ViewNode> viewIndex) {
+        final ViewNode node = ViewNode.obtain();
+        node.view = view;
+        viewIndex.put(view, node);
+        if (parent != null) {
+            computeBounds(node, parent);
+        }
+        detachViewNode(node);
+        if (view instanceof ViewGroup && !cullViewNode(node)) {
+            final ViewGroup group = (ViewGroup) view;
+            final int count = group.getChildCount();
+            for (int i = 0; i < count; i++) {
+                final ViewNode child = buildViewNode(group.getChildAt(i), parent != null ? node : null, viewIndex);
+                node.child.add(child);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Whether children of detached view group should not be captured, because the user can't see them.
+     * Descendants of culled node are only counted, which is much cheaper than capturing them.
+     */
+    private static boolean cullViewNode(@NonNull ViewNode node) {
+        if (!Configuration.CULL_HIDDEN_VIEWS) return false;
+        final boolean hidden = node.visibility != View.VISIBLE
+                || !node.attached
+                // Clip of children is empty when the view is out of window or clipped out by ancestors,
+                // but not when its children may overflow it, transformed views are never culled by bounds
+                || node.clipKnown && !node.transformed
+                        && (node.clipLeft >= node.clipRight || node.clipTop >= node.clipBottom);
+        if (hidden) {
+            node.culledDescendants = countDescendants((ViewGroup) node.view);
+        }
+        return hidden;
+    }
+
+    private static int countDescendants(@NonNull ViewGroup group) {
+        final int count = group.getChildCount();
+        int descendants = count;
+        for (int i = 0; i < count; i++) {
+            final View child = group.getChildAt(i);
+            if (child instanceof ViewGroup) {
+                descendants += countDescendants((ViewGroup) child);
+            }
+        }
+        return descendants;
+    }
+
+    @NonNull
+    private static List<FragmentNode> buildFragmentNodes(@NonNull ActivityObserver observer) {
+        final FragmentObserver fragmentObserver = observer.fragmentObserver;
+        if (fragmentObserver != null) {
+            return buildFragmentNodes(fragmentObserver, fragmentObserver.getFragments());
+        }
+        return Collections.emptyList();
+    }
+
+    @NonNull
+    private static List<FragmentNode> buildFragmentNodes(@NonNull FragmentObserver observer,
+                                                         @NonNull List<Fragment> fragments) {
+        final List<FragmentNode> nodes = new ArrayList<>(fragments.size());
+        for (Fragment fragment : fragments) {
+            // Fragments detached by transaction stay attached to host but leave the manager
+            if (fragment.isAdded()) {
+                final FragmentNode node = buildFragmentNode(observer, fragment);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    @NonNull
+    private static FragmentNode buildFragmentNode(@NonNull FragmentObserver observer, @NonNull Fragment fragment) {
+        final FragmentNode node = FragmentNode.obtain();
+        node.fragment = fragment;
+        node.classLink = formatClassLink(fragment);
+        node.tag = fragment.getTag();
+        node.dialog = isDialogFragment(fragment);
+        node.attachedToLayout = isAttachedToLayout(fragment);
+        for (Fragment child : observer.getChildFragments(fragment)) {
+            if (child.isAdded()) {
+                final FragmentNode childNode = buildFragmentNode(observer, child);
+                node.child.add(childNode);
+            }
+        }
+        return node;
+    }
+
+    private static final OutputBuilder inspectionOutput = new OutputBuilder();
+
+    /**
+     * Copy everything report needs from live view into node, so captured tree may be formatted later
+     * or on another thread.
+     */
+    private static void detachViewNode(@NonNull ViewNode node) {
+        final View view = node.view;
+        node.classLink = formatClassLink(view);
+        node.visibility = view.getVisibility();
+        node.viewGroup = view instanceof ViewGroup;
+        node.attached = view.getParent() != null;
+        node.idName = Configuration.APPEND_VIEW_ID ? getViewIdName(view) : null;
+        inspectView(view, inspectionOutput);
+        node.inspection = inspectionOutput.takeLine();
+        drawableInspector.detach(node);
+        if (Configuration.APPEND_VIEW_LOCATION && node.attached && node.visibility != View.GONE && !node.hasBounds) {
+            computeExactBounds(node);
+        }
+    }
+
+    private static void mergeFragmentsIntoViews(@NonNull List<FragmentNode> fragments,
+                                                @NonNull Map<View, ViewNode> viewIndex) {
+        for (int i = 0; i < fragments.size(); ) {
+            boolean merged = false;
+            final FragmentNode fragmentNode = fragments.get(i);
+            final View fragmentView = fragmentNode.fragment.getView();
+            if (fragmentView != null) {
+                final ViewParent parent = fragmentView.getParent();
+                if (parent instanceof View) {
+                    final ViewNode parentViewNode = viewIndex.get(parent);
+                    if (parentViewNode != null) {
+                        // Insert fragment node between parent and fragment views
+                        final ViewNode fragmentViewNode = viewIndex.get(fragmentView);
+                        parentViewNode.child.remove(fragmentViewNode);
+                        parentViewNode.fragments.add(fragmentNode);
+                        fragmentNode.view = fragmentViewNode;
+                        fragments.remove(i);
+                        merged = true;
+                    }
+                }
+            }
+            mergeFragmentsIntoViews(fragmentNode.child, viewIndex);
+            if (!merged) i++;
+        }
+    }
+
+    // endregion
+
+    // region View Bounds
+
+    // Created on init, so the class can be loaded on plain JVM to format recorded hierarchies
+    private static Rect tmpRect;
+    private static Point tmpPoint;
+    private static final List<View> tmpPath = new ArrayList<>();
+
+    /**
+     * Builds detached node holding geometry of content container, so bounds of its children
+     * can be computed by {@link #computeBounds(ViewNode, ViewNode)}. Node should be recycled by caller.
+     */
+    @NonNull
+    private static ViewNode buildContainerBounds(@NonNull ViewGroup container) {
+        final View decorView = container.getRootView();
+        tmpPath.clear();
+        for (View view = container; view != decorView; ) {
+            tmpPath.add(view);
+            final ViewParent parent = view.getParent();
+            if (!(parent instanceof View)) break;
+            view = (View) parent;
+        }
+        ViewNode parent = ViewNode.obtain();
+        parent.view = decorView;
+        decorView.getGlobalVisibleRect(tmpRect, tmpPoint);
+        // Global offset includes own scroll of decor view
+        parent.originX = tmpPoint.x + decorView.getScrollX();
+        parent.originY = tmpPoint.y + decorView.getScrollY();
+        parent.hasBounds = true;
+        parent.left = tmpRect.left;
+        parent.top = tmpRect.top;
+        parent.right = tmpRect.right;
+        parent.bottom = tmpRect.bottom;
+        parent.transformed = !decorView.getMatrix().isIdentity();
+        computeChildrenClip(parent, tmpRect.left, tmpRect.top, tmpRect.right, tmpRect.bottom);
+        for (int i = tmpPath.size() - 1; i >= 0; i--) {
+            final ViewNode node = ViewNode.obtain();
+            node.view = tmpPath.get(i);
+            computeBounds(node, parent);
+            parent.recycle();
+            parent = node;
+        }
+        tmpPath.clear();
+        return parent;
+    }
+
+    /**
+     * Computes global visible rect of view from already computed geometry of its parent.
+     * Matches {@link View#getGlobalVisibleRect(Rect)} but costs O(1) instead of walking up
+     * through all parents for every node.
+     */
+    private static void computeBounds(@NonNull ViewNode node, @NonNull ViewNode parent) {
+        final View view = node.view;
+        final View parentView = parent.view;
+        node.originX = parent.originX - parentView.getScrollX() + view.getLeft();
+        node.originY = parent.originY - parentView.getScrollY() + view.getTop();
+        node.transformed = parent.transformed || !view.getMatrix().isIdentity();
+        final int right = node.originX + view.getWidth();
+        final int bottom = node.originY + view.getHeight();
+        node.left = Math.max(node.originX, parent.clipLeft);
+        node.top = Math.max(node.originY, parent.clipTop);
+        node.right = Math.min(right, parent.clipRight);
+        node.bottom = Math.min(bottom, parent.clipBottom);
+        node.hasBounds = true;
+        if (node.transformed || node.left >= node.right || node.top >= node.bottom) {
+            // Platform leaves partially transformed rect for clipped out views and maps
+            // transformed ones through matrices, such nodes are rare so take exact result
+            computeExactBounds(node);
+        }
+        computeChildrenClip(node, parent.clipLeft, parent.clipTop, parent.clipRight, parent.clipBottom);
+    }
+
+    private static void computeExactBounds(@NonNull ViewNode node) {
+        tmpRect.set(0, 0, 0, 0);
+        node.view.getGlobalVisibleRect(tmpRect);
+        node.left = tmpRect.left;
+        node.top = tmpRect.top;
+        node.right = tmpRect.right;
+        node.bottom = tmpRect.bottom;
+        node.hasBounds = true;
+    }
+
+    /**
+     * Computes clip applied by view to its children the way {@code ViewGroup#getChildVisibleRect} does:
+     * bounds if the view has no parent or its parent clips children, then padding if the view clips
+     * to padding, then clip bounds of the view. Clip is empty if the platform reports such children
+     * invisible, then their bounds are computed exactly. Flags are readable since Lollipop, below it
+     * clip is unknown and every node is computed exactly.
+     */
+    private static void computeChildrenClip(@NonNull ViewNode node, int left, int top, int right, int bottom) {
+        final View view = node.view;
+        if (Build.VERSION.SDK_INT < 21) {
+            // Empty clip makes children fall back to exact bounds, but it doesn't mean they are hidden
+            node.clipLeft = node.clipTop = node.clipRight = node.clipBottom = 0;
+            node.clipKnown = false;
+            return;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            final ViewParent parent = view.getParent();
+            if (parent == null || (parent instanceof ViewGroup && ((ViewGroup) parent).getClipChildren())) {
+                left = Math.max(left, node.originX);
+                top = Math.max(top, node.originY);
+                right = Math.min(right, node.originX + view.getWidth());
+                bottom = Math.min(bottom, node.originY + view.getHeight());
+            }
+            if (group.getClipToPadding()) {
+                left = Math.max(left, node.originX + view.getPaddingLeft());
+                top = Math.max(top, node.originY + view.getPaddingTop());
+                right = Math.min(right, node.originX + view.getWidth() - view.getPaddingRight());
+                bottom = Math.min(bottom, node.originY + view.getHeight() - view.getPaddingBottom());
+            }
+            final Rect clipBounds = getClipBounds(view);
+            if (clipBounds != null) {
+                left = Math.max(left, node.originX + clipBounds.left);
+                top = Math.max(top, node.originY + clipBounds.top);
+                right = Math.min(right, node.originX + clipBounds.right);
+                bottom = Math.min(bottom, node.originY + clipBounds.bottom);
+            }
+        }
+        node.clipLeft = left;
+        node.clipTop = top;
+        node.clipRight = right;
+        node.clipBottom = bottom;
+        node.clipKnown = true;
+    }
+
+    @Nullable
+    @TargetApi(21)
+    private static Rect getClipBounds(@NonNull View view) {
+        if (Build.VERSION.SDK_INT >= 24) {
+            return view.getClipBounds(tmpRect) ? tmpRect : null;
+        }
+        return view.getClipBounds();
+    }
+
+    // endregion
+
+    // region Sliced Capture
+
+    private static void startSlicedCapture() {
+        // Capture in progress picks up changes itself, see SlicedCapture#onHierarchyMutated
+        if (slicedCapture != null) return;
+        slicedCapture = new SlicedCapture();
+        slicedCapture.run();
+    }
+
+    private static void onSlicedCaptureFinished(@NonNull ApplicationStateTree tree, long buildTimeNs) {
+        slicedCapture = null;
+        printReport(tree, buildTimeNs);
+    }
+
+    /**
+     * Captures application state tree in time-boxed slices. Each slice walks the hierarchy
+     * from saved cursor until slice budget is spent and posts the next slice to main thread.
+     * Posted slice waits for pending frame traversal, so the capture never blocks a frame
+     * for longer than the budget.
+     *
+     * If changes were detected between slices the capture is restarted. After
+     * {@link #MAX_RESTARTS} restarts the capture goes on and nodes whose children changed
+     * are marked as stale.
+     */
+    private static class SlicedCapture implements Runnable {
+
+        private static final int MAX_RESTARTS = 3;
+        private static final int STEPS_PER_CLOCK_CHECK = 8;
+
+        private final List<ActivityObserver> observers = new ArrayList<>();
+        // View nodes which children are not captured yet, top of the stack is next in layout order
+        private final ArrayDeque<ViewNode> pending = new ArrayDeque<>();
+        private final List<ViewNode> groups = new ArrayList<>();
+        private final Map<View, ViewNode> viewIndex = new HashMap<>();
+        private ApplicationStateTree tree;
+        private ActivityNode activityNode;
+        private ViewNode containerBounds;
+        private boolean captureBounds;
+        private List<FragmentNode> fragments;
+        private boolean mergeFragments;
+        private int observerIndex;
+        private int generation;
+        private int restarts;
+        private long busyNs;
+
+        SlicedCapture() {
+            start();
+        }
+
+        private void start() {
+            tree = ApplicationStateTree.obtain();
+            textViewInspector.resetBudget();
+            drawableInspector.reset();
+            updateReportScope();
+            observers.clear();
+            observers.addAll(activityObservers);
+            pending.clear();
+            groups.clear();
+            viewIndex.clear();
+            activityNode = null;
+            containerBounds = null;
+            captureBounds = Configuration.APPEND_VIEW_LOCATION || Configuration.CULL_HIDDEN_VIEWS;
+            fragments = null;
+            observerIndex = 0;
+            generation = changesGeneration;
+        }
+
+        @Override
+        public void run() {
+            final long sliceStart = System.nanoTime();
+            if (generation != changesGeneration) {
+                onHierarchyMutated();
+            }
+            final long deadline = sliceStart + Configuration.CAPTURE_SLICE_BUDGET_MS * 1000000L;
+            boolean finished = false;
+            int steps = 0;
+            while (true) {
+                if (!step()) {
+                    finished = true;
+                    break;
+                }
+                if (++steps % STEPS_PER_CLOCK_CHECK == 0 && System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            busyNs += System.nanoTime() - sliceStart;
+            notifyReportPhase("capture slice", sliceStart);
+            if (finished) {
+                onSlicedCaptureFinished(tree, busyNs);
+            } else {
+                handler.post(this);
+            }
+        }
+
+        private boolean step() {
+            if (!pending.isEmpty()) {
+                captureChildren(pending.pop());
+                return true;
+            }
+            if (activityNode != null) {
+                finishActivity();
+                return true;
+            }
+            if (observerIndex < observers.size()) {
+                startActivity(observers.get(observerIndex++));
+                return true;
+            }
+            return false;
+        }
+
+        private void startActivity(@NonNull ActivityObserver observer) {
+            if (!observer.inReportScope) {
+                tree.activities.add(buildActivitySummaryNode(observer));
+                return;
+            }
+            if (observer.cachedLines != null) {
+                tree.activities.add(buildActivityCachedNode(observer));
+                return;
+            }
+            activityNode = ActivityNode.obtain();
+            activityNode.observer = observer;
+            activityNode.activity = observer.activity;
+            activityNode.classLink = formatClassLink(observer.activity);
+            activityNode.state = observer.state;
+            fragments = buildFragmentNodes(observer);
+            mergeFragments = false;
+            if (Configuration.SHOW_VIEW_HIERARCHY) {
+                final ViewGroup container = findContentContainer(observer.activity);
+                if (container != null) {
+                    mergeFragments = true;
+                    containerBounds = captureBounds ? buildContainerBounds(container) : null;
+                    captureChildren(container, containerBounds, activityNode.views);
+                }
+            }
+        }
+
+        private void captureChildren(@NonNull ViewNode node) {
+            if (node.view instanceof ViewGroup && !cullViewNode(node)) {
+                final ViewGroup group = (ViewGroup) node.view;
+                node.childCount = group.getChildCount();
+                groups.add(node);
+                captureChildren(group, captureBounds ? node : null, node.child);
+            }
+        }
+
+        private void captureChildren(@NonNull ViewGroup group,
+                                     @Nullable ViewNode parent,
+                                     @NonNull List<ViewNode> target) {
+            final int count = group.getChildCount();
+            for (int i = 0; i < count; i++) {
+                final View view = group.getChildAt(i);
+                final ViewNode child = ViewNode.obtain();
+                child.view = view;
+                viewIndex.put(view, child);
+                if (parent != null) {
+                    computeBounds(child, parent);
+                }
+                detachViewNode(child);
+                target.add(child);
+            }
+            for (int i = target.size() - 1; i >= target.size() - count; i--) {
+                pending.push(target.get(i));
+            }
+        }
+
+        private void finishActivity() {
+            if (mergeFragments) {
+                mergeFragmentsIntoViews(fragments, viewIndex);
+            }
+            activityNode.fragment.addAll(fragments);
+            tree.activities.add(activityNode);
+            activityNode = null;
+            releaseContainerBounds();
+            fragments = null;
+            viewIndex.clear();
+        }
+
+        private void onHierarchyMutated() {
+            generation = changesGeneration;
+            if (restarts < MAX_RESTARTS) {
+                restarts++;
+                if (activityNode != null) {
+                    for (FragmentNode fragmentNode : fragments) {
+                        recycleFragmentNode(fragmentNode);
+                    }
+                    recycleActivityNode(activityNode);
+                }
+                releaseContainerBounds();
+                recycleAppStateTree(tree);
+                start();
+            } else {
+                markStaleNodes();
+            }
+        }
+
+        private void releaseContainerBounds() {
+            if (containerBounds != null) {
+                containerBounds.recycle();
+                containerBounds = null;
+            }
+        }
+
+        private void markStaleNodes() {
+            for (ViewNode node : groups) {
+                final ViewGroup group = (ViewGroup) node.view;
+                if (group.getChildCount() != node.childCount) {
+                    node.stale = true;
+                    continue;
+                }
+                for (ViewNode child : node.child) {
+                    if (child.view.getParent() != group) {
+                        node.stale = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // endregion
+
+    // region Statistics
+
+    private static final int STATISTICS_TOP_CLASSES = 5;
+
+    // Reused by statistics pass to count views by class
+    private static final Map<Class<?>, int[]> classCounts = new HashMap<>();
+
+    /**
+     * Export recorded statistics as CSV, one line per captured activity per report.
+     * Columns: time, activity, state, views, view groups, leaves, max depth, fragments, top classes.
+     */
+    @NonNull
+    @MainThread
+    public static String exportStatistics() {
+        final StringBuilder csv = new StringBuilder(64 * (statisticsHistory.size() + 1));
+        csv.append("time,activity,state,views,view_groups,leaves,max_depth,fragments,top_classes\n");
+        for (HierarchyStatistics statistics : statisticsHistory) {
+            csv.append(statistics.time).append(',')
+                    .append(statistics.activityName).append(',')
+                    .append(statistics.state).append(',')
+                    .append(statistics.views).append(',')
+                    .append(statistics.viewGroups).append(',')
+                    .append(statistics.leaves).append(',')
+                    .append(statistics.maxDepth).append(',')
+                    .append(statistics.fragments).append(',')
+                    .append('"').append(statistics.topClasses).append('"')
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Clear statistics recorded by previous reports.
+     */
+    @MainThread
+    public static void clearStatistics() {
+        statisticsHistory.clear();
+    }
+
+    private static void reportStatistics() {
+        final long startBuildTime = System.nanoTime();
+        final long time = System.currentTimeMillis();
+        updateReportScope();
+        final int size = activityObservers.size();
+        final List<HierarchyStatistics> captured = new ArrayList<>(size);
+        for (ActivityObserver observer : activityObservers) {
+            captured.add(observer.inReportScope ? collectStatistics(observer) : null);
+        }
+        final long buildTimeNs = System.nanoTime() - startBuildTime;
+        notifyReportPhase("statistics", startBuildTime);
+
+        final long startFormatTime = System.nanoTime();
+        final OutputBuilder output = new OutputBuilder();
+        appendBuildTime(output, buildTimeNs)
+                .append(OUTPUT_HORIZONTAL_DIVIDER)
+                .append(TITLE_SPECTRUM_STATE_REPORT)
+                .append(HEADER_STATISTICS);
+        for (int i = 0; i < size; i++) {
+            final ActivityObserver observer = activityObservers.get(i);
+            final HierarchyStatistics statistics = captured.get(i);
+            indent(output, 0)
+                    .append("⬟[Activity] ")
+                    .append(formatClassLink(observer.activity))
+                    .append(" [").append(observer.state).append("]");
+            if (statistics == null) {
+                output.append(" (out of report scope)").newline();
+                continue;
+            }
+            output.newline();
+            appendStatistics(output, statistics);
+            statistics.time = time;
+            recordStatistics(statistics);
+        }
+        appendLayoutThrash(output);
+        appendTimings(output);
+        appendFragmentTimings(output);
+        appendExtensions(output);
+        appendPendingChanges(output);
+        output.append(OUTPUT_HORIZONTAL_DIVIDER);
+        final List<String> messages = output.build();
+        notifyReportPhase("format", startFormatTime);
+        final long startPrintTime = System.nanoTime();
+        print(messages);
+        notifyReportPhase("print", startPrintTime);
+    }
+
+    /**
+     * Count views of activity in a single pass without building nodes.
+     */
+    @NonNull
+    private static HierarchyStatistics collectStatistics(@NonNull ActivityObserver observer) {
+        final HierarchyStatistics statistics = new HierarchyStatistics();
+        statistics.activityName = observer.activity.getClass().getName();
+        statistics.state = observer.state;
+        final FragmentObserver fragmentObserver = observer.fragmentObserver;
+        if (fragmentObserver != null) {
+            statistics.fragments = countFragments(fragmentObserver, fragmentObserver.getFragments());
+        }
+        final ViewGroup container = findContentContainer(observer.activity);
+        if (container != null) {
+            final int count = container.getChildCount();
+            for (int i = 0; i < count; i++) {
+                countViews(container.getChildAt(i), 1, statistics);
+            }
+        }
+        statistics.topClasses = buildTopClasses();
+        classCounts.clear();
+        return statistics;
+    }
+
+    private static void countViews(@NonNull View view, int depth, @NonNull HierarchyStatistics statistics) {
+        statistics.views++;
+        if (depth > statistics.maxDepth) {
+            statistics.maxDepth = depth;
+        }
+        final int[] classCount = classCounts.get(view.getClass());
+        if (classCount != null) {
+            classCount[0]++;
+        } else {
+            classCounts.put(view.getClass(), new int[] { 1 });
+        }
+        if (view instanceof ViewGroup) {
+            statistics.viewGroups++;
+            final ViewGroup group = (ViewGroup) view;
+            final int count = group.getChildCount();
+            for (int i = 0; i < count; i++) {
+                countViews(group.getChildAt(i), depth + 1, statistics);
+            }
+        } else {
+            statistics.leaves++;
+        }
+    }
+
+    private static int countFragments(@NonNull FragmentObserver observer, @NonNull List<Fragment> fragments) {
+        int count = 0;
+        for (Fragment fragment : fragments) {
+            if (fragment.isAdded()) {
+                count += 1 + countFragments(observer, observer.getChildFragments(fragment));
+            }
+        }
+        return count;
+    }
+
+    @NonNull
+    private static String buildTopClasses() {
+        final List<Map.Entry<Class<?>, int[]>> entries = new ArrayList<>(classCounts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Class<?>, int[]>>() {
+            @Override
+            public int compare(Map.Entry<Class<?>, int[]> left, Map.Entry<Class<?>, int[]> right) {
+                return right.getValue()[0] - left.getValue()[0];
+            }
+        });
+        final StringBuilder builder = new StringBuilder();
+        final int size = Math.min(entries.size(), STATISTICS_TOP_CLASSES);
+        for (int i = 0; i < size; i++) {
+            final Map.Entry<Class<?>, int[]> entry = entries.get(i);
+            if (i > 0) builder.append("; ");
+            final Class<?> cls = entry.getKey();
+            // Anonymous classes have no simple name
+            builder.append(cls.isAnonymousClass() ? cls.getName() : cls.getSimpleName())
+                    .append(" ×").append(entry.getValue()[0]);
+        }
+        return builder.toString();
+    }
+
+    private static void appendStatistics(@NonNull OutputBuilder output, @NonNull HierarchyStatistics statistics) {
+        indent(output, 2)
+                .append("views: ").append(statistics.views)
+                .append(", view groups: ").append(statistics.viewGroups)
+                .append(", leaves: ").append(statistics.leaves)
+                .append(", max depth: ").append(statistics.maxDepth)
+                .append(", fragments: ").append(statistics.fragments)
+                .newline();
+        if (statistics.topClasses.length() > 0) {
+            indent(output, 2).append("top classes: ").append(statistics.topClasses).newline();
+        }
+    }
+
+    private static void recordStatistics(@NonNull HierarchyStatistics statistics) {
+        final int limit = Configuration.STATISTICS_HISTORY_SIZE;
+        if (limit <= 0) return;
+        if (statisticsHistory.size() >= limit) {
+            statisticsHistory.subList(0, statisticsHistory.size() - limit + 1).clear();
+        }
+        statisticsHistory.add(statistics);
+    }
+
+    /**
+     * Hierarchy numbers of one activity captured by one statistics report.
+     */
+    static class HierarchyStatistics {
+        long time;
+        String activityName;
+        String state;
+        int views;
+        int viewGroups;
+        int leaves;
+        int maxDepth;
+        int fragments;
+        String topClasses = "";
+    }
+
+    // endregion
+
+    // region Parallel Formatting
+
+    // Subtrees smaller than that are formatted by their parent
+    private static final int MIN_FORMAT_UNIT_SIZE = 32;
+    // Subtrees larger than that are split into units of their children
+    private static final int MAX_FORMAT_UNIT_SIZE = 512;
+    private static final int MAX_FORMAT_THREADS = 4;
+
+    private static ThreadPoolExecutor formatExecutor;
+
+    // Root node of every subtree formatted in background, set only while report is being formatted
+    private static Map<Object, FormatUnit> formatUnits;
+
+    /**
+     * Split captured tree into disjoint subtrees and start formatting them in background.
+     * Subtree roots are met by {@link #appendFormatUnit(Object, OutputBuilder)} during regular traversal,
+     * so partial outputs are joined in tree order.
+     */
+    private static void startFormatUnits(@NonNull ApplicationStateTree tree) {
+        final List<FormatUnit> units = new ArrayList<>();
+        for (ActivityNode activityNode : tree.activities) {
+            if (!activityNode.captured || activityNode.cachedLines != null) continue;
+            final int level = 2;
+            for (FragmentNode fragmentNode : activityNode.fragment) {
+                addFormatUnit(fragmentNode, level, splitFormatUnits(fragmentNode, level, units), units);
+            }
+            for (ViewNode viewNode : activityNode.views) {
+                addFormatUnit(viewNode, level, splitFormatUnits(viewNode, level, units), units);
+            }
+        }
+        // Single unit is faster to format in place
+        if (units.size() < 2) return;
+        // Resolve number format before formatting threads start, so they only read it
+        getNumberFormat();
+        final Map<Object, FormatUnit> index = new IdentityHashMap<>(units.size() * 2);
+        for (FormatUnit unit : units) {
+            index.put(unit.node, unit);
+        }
+        formatUnits = index;
+        final ThreadPoolExecutor executor = getFormatExecutor();
+        for (FormatUnit unit : units) {
+            executor.execute(unit);
+        }
+    }
+
+    /**
+     * @return size of subtree. Children of subtree larger than {@link #MAX_FORMAT_UNIT_SIZE} become units,
+     * smaller subtrees are never split, so units don't overlap.
+     */
+    private static int splitFormatUnits(@NonNull ViewNode node, int level, @NonNull List<FormatUnit> units) {
+        final int[] sizes = new int[node.fragments.size() + node.child.size()];
+        int size = 1;
+        int i = 0;
+        for (FragmentNode fragmentNode : node.fragments) {
+            size += sizes[i++] = splitFormatUnits(fragmentNode, level + 1, units);
+        }
+        for (ViewNode viewNode : node.child) {
+            size += sizes[i++] = splitFormatUnits(viewNode, level + 2, units);
+        }
+        if (size > MAX_FORMAT_UNIT_SIZE) {
+            i = 0;
+            for (FragmentNode fragmentNode : node.fragments) {
+                addFormatUnit(fragmentNode, level + 1, sizes[i++], units);
+            }
+            for (ViewNode viewNode : node.child) {
+                addFormatUnit(viewNode, level + 2, sizes[i++], units);
+            }
+        }
+        return size;
+    }
+
+    private static int splitFormatUnits(@NonNull FragmentNode node, int level, @NonNull List<FormatUnit> units) {
+        // Same levels as visitFragment
+        final int nextLevel = node.view != null ? level + 1 : level + 2;
+        final int[] sizes = new int[node.child.size() + 1];
+        int size = 1;
+        int i = 0;
+        for (FragmentNode fragmentNode : node.child) {
+            size += sizes[i++] = splitFormatUnits(fragmentNode, nextLevel, units);
+        }
+        if (node.view != null) {
+            size += sizes[i] = splitFormatUnits(node.view, nextLevel, units);
+        }
+        if (size > MAX_FORMAT_UNIT_SIZE) {
+            i = 0;
+            for (FragmentNode fragmentNode : node.child) {
+                addFormatUnit(fragmentNode, nextLevel, sizes[i++], units);
+            }
+            if (node.view != null) {
+                addFormatUnit(node.view, nextLevel, sizes[i], units);
+            }
+        }
+        return size;
+    }
+
+    private static void addFormatUnit(@NonNull Object node, int level, int size, @NonNull List<FormatUnit> units) {
+        // Larger subtrees are already split
+        if (size >= MIN_FORMAT_UNIT_SIZE && size <= MAX_FORMAT_UNIT_SIZE) {
+            units.add(new FormatUnit(node, level));
+        }
+    }
+
+    /**
+     * Append output of subtree formatted in background if node is root of one.
+     */
+    private static boolean appendFormatUnit(@NonNull Object node, @NonNull OutputBuilder output) {
+        final Map<Object, FormatUnit> units = formatUnits;
+        if (units == null) return false;
+        final FormatUnit unit = units.get(node);
+        if (unit == null) return false;
+        // Format on current thread if no formatting thread has taken the unit yet
+        unit.run();
+        try {
+            output.appendLines(unit.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while formatting report", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to format report", e.getCause());
+        }
+        return true;
+    }
+
+    private static void cancelFormatUnits() {
+        if (formatUnits == null) return;
+        // Units are all joined unless formatting failed, then tree is recycled and they must not start
+        for (FormatUnit unit : formatUnits.values()) {
+            unit.cancel(false);
+        }
+        formatUnits = null;
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor getFormatExecutor() {
+        if (formatExecutor == null) {
+            final int threads = Math.max(1,
+                    Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_FORMAT_THREADS));
+            formatExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "Spectrum-Format-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            formatExecutor.allowCoreThreadTimeOut(true);
+        }
+        return formatExecutor;
+    }
+
+    /**
+     * Subtree of captured tree formatted into recorded lines.
+     */
+    private static class FormatUnit extends FutureTask<List<String>> {
+
+        final Object node;
+
+        FormatUnit(@NonNull final Object node, final int level) {
+            super(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    final OutputBuilder output = new OutputBuilder();
+                    output.startRecording();
+                    if (node instanceof ViewNode) {
+                        visitView((ViewNode) node, level, output);
+                    } else {
+                        visitFragment((FragmentNode) node, level, output);
+                    }
+                    return output.stopRecording();
+                }
+            });
+            this.node = node;
+        }
+    }
+
+    // endregion
+
+    // region Paced Emission
+
+    private static final long EMISSION_RETRY_DELAY_MS = 1000;
+
+    private static Emitter emitter;
+
+    private static int emittedReports = 0;
+
+    private static void emit(@NonNull List<String> messages) {
+        if (emitter == null) {
+            emitter = new Emitter();
+        }
+        emitter.enqueue(new Emission(++emittedReports, messages, Configuration.LOG_LEVEL,
+                Configuration.LOG_TAG, Configuration.EMISSION_BYTES_PER_SECOND));
+    }
+
+    /**
+     * Report chunks waiting for emission, each chunk is prefixed with header to reassemble report.
+     */
+    private static class Emission {
+        final int report;
+        final List<String> messages;
+        final int level;
+        final String tag;
+        final int bytesPerSecond;
+        int next = 0;
+        // Chunks rejected by logd, retried once after all other chunks
+        final List<Integer> rejected = new ArrayList<>(0);
+        boolean retrying = false;
+
+        Emission(int report, @NonNull List<String> messages, int level, @NonNull String tag, int bytesPerSecond) {
+            this.report = report;
+            this.messages = messages;
+            this.level = level;
+            this.tag = tag;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @NonNull
+        String header(int index) {
+            return "[#" + report + " " + (index + 1) + "/" + messages.size() + "] ";
+        }
+    }
+
+    /**
+     * Prints report chunks on background thread with token bucket pacing, so logd rate limiter
+     * doesn't drop lines of large reports and main thread isn't blocked by waiting.
+     *
+     * Only failed writes are seen here. Logd accepts lines before its rate limiter drops them,
+     * so such drops are found by the reader from chunk headers, see spectrum-client ReportAssembler.
+     */
+    private static class Emitter implements Runnable {
+
+        private final HandlerThread thread = new HandlerThread("Spectrum-Emitter");
+        private final Handler handler;
+        // Accessed on emitter thread only
+        private final ArrayDeque<Emission> queue = new ArrayDeque<>();
+        private long tokens;
+        private long lastRefillTime;
+
+        Emitter() {
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+
+        void enqueue(@NonNull final Emission emission) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean idle = queue.isEmpty();
+                    queue.add(emission);
+                    if (idle) {
+                        Emitter.this.run();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (!queue.isEmpty()) {
+                final Emission emission = queue.peek();
+                final List<Integer> chunks = emission.retrying ? emission.rejected : null;
+                final int size = chunks != null ? chunks.size() : emission.messages.size();
+                if (emission.next < size) {
+                    final int index = chunks != null ? chunks.get(emission.next) : emission.next;
+                    final String chunk = emission.header(index) + emission.messages.get(index);
+                    final long cost = OutputBuilder.utf8Length(chunk);
+                    final long wait = acquire(cost, emission.bytesPerSecond);
+                    if (wait > 0) {
+                        handler.postDelayed(this, wait);
+                        return;
+                    }
+                    tokens -= cost;
+                    emission.next++;
+                    // Negative result means the write failed, e.g. logd socket was unavailable
+                    final boolean written = Log.println(emission.level, emission.tag, chunk) > 0;
+                    if (!emission.retrying && !written) {
+                        emission.rejected.add(index);
+                    } else if (emission.retrying && written) {
+                        emission.rejected.set(emission.next - 1, -1);
+                    }
+                    continue;
+                }
+                if (!emission.retrying && !emission.rejected.isEmpty()) {
+                    emission.retrying = true;
+                    emission.next = 0;
+                    handler.postDelayed(this, EMISSION_RETRY_DELAY_MS);
+                    return;
+                }
+                reportDropped(emission);
+                queue.poll();
+            }
+        }
+
+        /**
+         * @return time to wait until bucket has enough tokens, or 0 if chunk may be emitted right now.
+         */
+        private long acquire(long cost, int bytesPerSecond) {
+            final long now = SystemClock.elapsedRealtime();
+            // Bucket holds at most one second of budget, but always fits at least one chunk
+            final long capacity = Math.max(bytesPerSecond, cost);
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) * bytesPerSecond / 1000);
+            lastRefillTime = now;
+            if (tokens >= cost) return 0;
+            return Math.max(1, (cost - tokens) * 1000 / bytesPerSecond);
+        }
+
+        private void reportDropped(@NonNull Emission emission) {
+            if (emission.rejected.isEmpty()) return;
+            final StringBuilder message = new StringBuilder("[#").append(emission.report).append("] dropped chunks:");
+            int dropped = 0;
+            for (Integer index : emission.rejected) {
+                if (index >= 0) {
+                    message.append(' ').append(index + 1);
+                    dropped++;
+                }
+            }
+            if (dropped > 0) {
+                message.append(" of ").append(emission.messages.size());
+                Log.println(Log.WARN, emission.tag, message.toString());
+            }
+        }
+    }
+
+    // endregion
+
+    // region Transition Timing
+
+    private static final int TIMING_HISTORY_SIZE = 200;
+    private static final String TIMING_INITIAL_DISPLAY = "initial_display";
+    private static final String TIMING_NAVIGATION = "navigation";
+
+    // Spectrum is initialized by content provider at process start unless auto init is disabled
+    private static long initUptime;
+    private static long initialDisplayMs = -1;
+    @Nullable
+    private static ActivityObserver pausedObserver;
+    private static long pauseUptime;
+    private static final List<TimingRecord> timingHistory = new ArrayList<>();
+
+    /**
+     * Time from Spectrum initialization to the first global layout of the first activity, or -1 if not happened yet.
+     * With default automatic initialization it is the time to initial display of the process.
+     */
+    @MainThread
+    public static long getTimeToInitialDisplay() {
+        return initialDisplayMs;
+    }
+
+    /**
+     * Export recorded timings as CSV, initial display and last navigations.
+     * Navigation is measured from pause of previous activity to the first layout of the next one after its start.
+     * Columns: time, kind, from, to, duration in milliseconds.
+     */
+    @NonNull
+    @MainThread
+    public static String exportTimings() {
+        final StringBuilder csv = new StringBuilder(64 * (timingHistory.size() + 1));
+        csv.append("time,kind,from,to,duration_ms\n");
+        for (TimingRecord record : timingHistory) {
+            csv.append(record.time).append(',')
+                    .append(record.kind).append(',')
+                    .append(record.from != null ? record.from : "").append(',')
+                    .append(record.to).append(',')
+                    .append(record.durationMs)
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Clear recorded navigation timings, time to initial display is kept.
+     */
+    @MainThread
+    public static void clearTimings() {
+        timingHistory.clear();
+    }
+
+    private static void onActivityPaused(@NonNull ActivityObserver observer) {
+        pausedObserver = observer;
+        pauseUptime = SystemClock.uptimeMillis();
+    }
+
+    private static void onActivityResumed(@NonNull ActivityObserver observer) {
+        if (pausedObserver == observer) {
+            // Paused for a moment without navigation, e.g. by a system dialog
+            pausedObserver = null;
+        }
+    }
+
+    private static void onFirstLayout(@NonNull ActivityObserver observer) {
+        final long now = SystemClock.uptimeMillis();
+        final String name = formatClassLink(observer.activity);
+        if (initialDisplayMs < 0) {
+            initialDisplayMs = now - initUptime;
+            recordTiming(new TimingRecord(TIMING_INITIAL_DISPLAY, null, name, initialDisplayMs));
+        } else if (pausedObserver != null && pausedObserver != observer) {
+            final String from = formatClassLink(pausedObserver.activity);
+            recordTiming(new TimingRecord(TIMING_NAVIGATION, from, name, now - pauseUptime));
+        }
+        pausedObserver = null;
+    }
+
+    private static void recordTiming(@NonNull TimingRecord record) {
+        if (timingHistory.size() >= TIMING_HISTORY_SIZE) {
+            timingHistory.remove(0);
+        }
+        timingHistory.add(record);
+    }
+
+    private static void appendTimings(@NonNull OutputBuilder output) {
+        if (!Configuration.TIMINGS || initialDisplayMs < 0) return;
+        output.newline().append(HEADER_TIMING).append(" - initial display: ");
+        appendMillis(output, initialDisplayMs).newline();
+        int count = 0;
+        TimingRecord last = null;
+        for (TimingRecord record : timingHistory) {
+            if (record.kind.equals(TIMING_NAVIGATION)) {
+                count++;
+                last = record;
+            }
+        }
+        if (last == null) return;
+        final long[] durations = new long[count];
+        int index = 0;
+        for (TimingRecord record : timingHistory) {
+            if (record.kind.equals(TIMING_NAVIGATION)) {
+                durations[index++] = record.durationMs;
+            }
+        }
+        Arrays.sort(durations);
+        output.append(" - navigation ×").append(count).append(": p50 ");
+        appendMillis(output, percentile(durations, 50)).append(", p90 ");
+        appendMillis(output, percentile(durations, 90)).append(", p99 ");
+        appendMillis(output, percentile(durations, 99)).append(", max ");
+        appendMillis(output, durations[count - 1]).newline();
+        output.append(" - last navigation: ").append(last.from != null ? last.from : "")
+                .append(" → ").append(last.to).append(": ");
+        appendMillis(output, last.durationMs).newline();
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    private static long percentile(@NonNull long[] sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    @NonNull
+    private static OutputBuilder appendMillis(@NonNull OutputBuilder output, long ms) {
+        return output.append((int) Math.min(ms, Integer.MAX_VALUE)).append(" ms");
+    }
+
+    /**
+     * Single measured transition.
+     */
+    private static class TimingRecord {
+        // Wall time of the end of transition
+        final long time = System.currentTimeMillis();
+        @NonNull
+        final String kind;
+        @Nullable
+        final String from;
+        @NonNull
+        final String to;
+        final long durationMs;
+
+        TimingRecord(@NonNull String kind, @Nullable String from, @NonNull String to, long durationMs) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.durationMs = durationMs;
+        }
+    }
+
+    // endregion
+
+    // region Fragment Timing
+
+    // Upper bounds of histogram buckets in milliseconds, the last bucket has no bound
+    private static final int[] FRAGMENT_TIMING_BOUNDS_MS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+    private static final int FRAGMENT_TIMING_BUCKETS = FRAGMENT_TIMING_BOUNDS_MS.length + 1;
+    private static final int FRAGMENT_TIMING_TOP_CLASSES = 3;
+
+    // Indexes of fragment stage timestamps, every stage has its own histogram
+    private static final int FRAGMENT_STAMP_START = 0;
+    private static final int FRAGMENT_STAMP_RESUME = 1;
+    private static final int FRAGMENT_STAMP_VIEW = 2;
+    private static final int FRAGMENT_STAMPS = 3;
+
+    private static final Map<Class<?>, FragmentTiming> fragmentTimings = new HashMap<>();
+    private static final List<long[]> fragmentStampsPool = new ArrayList<>();
+
+    /**
+     * Export fragment timing histograms as CSV, three lines per fragment class: attach to start, attach to resume
+     * and view creation.
+     * Columns: fragment, kind, count, max duration in milliseconds, counts of buckets up to 1, 2, 4 ... 1024 ms and above.
+     */
+    @NonNull
+    @MainThread
+    public static String exportFragmentTimings() {
+        final StringBuilder csv = new StringBuilder(128 * (3 * fragmentTimings.size() + 1));
+        csv.append("fragment,kind,count,max_ms");
+        for (int bound : FRAGMENT_TIMING_BOUNDS_MS) {
+            csv.append(",le_").append(bound);
+        }
+        csv.append(",gt_").append(FRAGMENT_TIMING_BOUNDS_MS[FRAGMENT_TIMING_BOUNDS_MS.length - 1]).append('\n');
+        for (Map.Entry<Class<?>, FragmentTiming> entry : fragmentTimings.entrySet()) {
+            final String name = entry.getKey().getName();
+            appendHistogramCsv(csv, name, "attach_to_start", entry.getValue().start);
+            appendHistogramCsv(csv, name, "attach_to_resume", entry.getValue().resume);
+            appendHistogramCsv(csv, name, "view_creation", entry.getValue().view);
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Clear fragment timing histograms.
+     */
+    @MainThread
+    public static void clearFragmentTimings() {
+        fragmentTimings.clear();
+    }
+
+    private static void appendHistogramCsv(@NonNull StringBuilder csv, @NonNull String name,
+                                           @NonNull String kind, @NonNull Histogram histogram) {
+        csv.append(name).append(',').append(kind).append(',')
+                .append(histogram.count).append(',').append(histogram.maxMs);
+        for (int bucket : histogram.buckets) {
+            csv.append(',').append(bucket);
+        }
+        csv.append('\n');
+    }
+
+    @NonNull
+    private static long[] obtainFragmentStamps() {
+        final long[] stamps = obtainElement(fragmentStampsPool);
+        return stamps != null ? stamps : new long[FRAGMENT_STAMPS];
+    }
+
+    private static void recordFragmentTiming(@NonNull Fragment fragment, int stage, long durationNs) {
+        final Class<?> type = fragment.getClass();
+        FragmentTiming timing = fragmentTimings.get(type);
+        if (timing == null) {
+            timing = new FragmentTiming();
+            fragmentTimings.put(type, timing);
+        }
+        timing.histograms[stage].record(durationNs / 1000000L);
+    }
+
+    private static void appendFragmentTimings(@NonNull OutputBuilder output) {
+        if (!Configuration.FRAGMENT_TIMINGS || fragmentTimings.isEmpty()) return;
+        final List<Map.Entry<Class<?>, FragmentTiming>> slowest = new ArrayList<>(fragmentTimings.entrySet());
+        Collections.sort(slowest, new Comparator<Map.Entry<Class<?>, FragmentTiming>>() {
+            @Override
+            public int compare(Map.Entry<Class<?>, FragmentTiming> left, Map.Entry<Class<?>, FragmentTiming> right) {
+                final Histogram leftResume = left.getValue().resume;
+                final Histogram rightResume = right.getValue().resume;
+                final int byPercentile = rightResume.percentileBucket(90) - leftResume.percentileBucket(90);
+                return byPercentile != 0 ? byPercentile : Long.compare(rightResume.maxMs, leftResume.maxMs);
+            }
+        });
+        output.newline().append(HEADER_FRAGMENT_TIMING);
+        final int size = Math.min(slowest.size(), FRAGMENT_TIMING_TOP_CLASSES);
+        for (int i = 0; i < size; i++) {
+            final FragmentTiming timing = slowest.get(i).getValue();
+            output.append(" - ").append(formatClassLink(slowest.get(i).getKey()));
+            appendHistogram(output, ": start", timing.start);
+            appendHistogram(output, "; resume", timing.resume);
+            appendHistogram(output, "; view", timing.view);
+            output.newline();
+        }
+    }
+
+    private static void appendHistogram(@NonNull OutputBuilder output, @NonNull String title,
+                                        @NonNull Histogram histogram) {
+        if (histogram.count == 0) return;
+        output.append(title).append(" ×").append(histogram.count).append(" p50 ");
+        appendBucket(output, histogram.percentileBucket(50)).append(", p90 ");
+        appendBucket(output, histogram.percentileBucket(90)).append(", max ");
+        appendMillis(output, histogram.maxMs);
+    }
+
+    @NonNull
+    private static OutputBuilder appendBucket(@NonNull OutputBuilder output, int bucket) {
+        final int last = FRAGMENT_TIMING_BOUNDS_MS.length - 1;
+        return bucket <= last
+                ? output.append('≤').append(FRAGMENT_TIMING_BOUNDS_MS[bucket]).append(" ms")
+                : output.append('>').append(FRAGMENT_TIMING_BOUNDS_MS[last]).append(" ms");
+    }
+
+    /**
+     * Latency histograms of one fragment class.
+     */
+    private static class FragmentTiming {
+        // From attach to the first start after it
+        final Histogram start = new Histogram();
+        // From attach to the first resume after it
+        final Histogram resume = new Histogram();
+        // From create to view created, only the first view of instance as recreated view has no start callback
+        final Histogram view = new Histogram();
+        // Histograms by FRAGMENT_STAMP_* index
+        final Histogram[] histograms = { start, resume, view };
+    }
+
+    /**
+     * Histogram with fixed exponential buckets, recording doesn't allocate.
+     */
+    private static class Histogram {
+        final int[] buckets = new int[FRAGMENT_TIMING_BUCKETS];
+        int count;
+        long maxMs;
+
+        void record(long ms) {
+            int bucket = 0;
+            while (bucket < FRAGMENT_TIMING_BOUNDS_MS.length && ms > FRAGMENT_TIMING_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            if (ms > maxMs) {
+                maxMs = ms;
+            }
+        }
+
+        /**
+         * Index of bucket containing given nearest-rank percentile, -1 if empty.
+         */
+        int percentileBucket(int percentile) {
+            if (count == 0) return -1;
+            final int rank = Math.max(1, (int) Math.ceil(percentile / 100.0 * count));
+            int seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return i;
+            }
+            return buckets.length - 1;
+        }
+    }
+
+    // endregion
+
+    // region Layout Thrash
+
+    private static final long LAYOUT_RATE_WINDOW_MS = 1000;
+    private static final long LAYOUT_IDLE_THRESHOLD_MS = 1000;
+    private static final int LAYOUT_THRASH_TOP_OFFENDERS = 3;
+
+    // Time of last touch or key event seen by window callback or gesture surface,
+    // layout caused by input is not a thrash
+    private static long lastInputTime;
+
+    private static void appendLayoutThrash(@NonNull OutputBuilder output) {
+        boolean headerAppended = false;
+        final long now = SystemClock.uptimeMillis();
+        for (ActivityObserver observer : activityObservers) {
+            final LayoutMonitor monitor = observer.layoutMonitor;
+            if (!monitor.thrashing) continue;
+            if (now - monitor.lastPassTime >= LAYOUT_RATE_WINDOW_MS) {
+                // Passes stopped, last window result is stale
+                monitor.release();
+                continue;
+            }
+            if (!headerAppended) {
+                output.newline().append(HEADER_LAYOUT_THRASH);
+                headerAppended = true;
+            }
+            output.append(" - ").append(formatClassLink(observer.activity))
+                    .append(": ").append(monitor.passesPerSecond).append(" passes/s while idle");
+            final List<Map.Entry<String, int[]>> offenders = new ArrayList<>(monitor.offenders.entrySet());
+            Collections.sort(offenders, new Comparator<Map.Entry<String, int[]>>() {
+                @Override
+                public int compare(Map.Entry<String, int[]> left, Map.Entry<String, int[]> right) {
+                    return right.getValue()[0] - left.getValue()[0];
+                }
+            });
+            final int size = Math.min(offenders.size(), LAYOUT_THRASH_TOP_OFFENDERS);
+            for (int i = 0; i < size; i++) {
+                final Map.Entry<String, int[]> offender = offenders.get(i);
+                output.append(i == 0 ? ", changing: " : ", ")
+                        .append(offender.getKey()).append(" ×").append(offender.getValue()[0]);
+            }
+            output.newline();
+        }
+    }
+
+    /**
+     * Counts layout passes of activity per second. When an idle activity keeps re-laying out faster
+     * than {@link Configuration#layoutThrashThreshold(int)}, frames of views are compared between passes
+     * to find subtrees which change size or position.
+     */
+    private static class LayoutMonitor {
+
+        // Rate of last completed window
+        int passesPerSecond;
+        boolean thrashing;
+        // Description of topmost changed view mapped to count of passes it was changed in
+        final Map<String, int[]> offenders = new HashMap<>();
+
+        long lastPassTime;
+        private long windowStart;
+        private int windowPasses;
+        private long lastChangeTime;
+        // Frames of views captured by previous pass while thrash is suspected
+        private Map<View, int[]> frames;
+
+        void onActivityChanged() {
+            lastChangeTime = SystemClock.uptimeMillis();
+            // Offenders of previous state don't describe the new one
+            release();
+        }
+
+        void onLayout(@NonNull Activity activity) {
+            final int threshold = Configuration.LAYOUT_THRASH_THRESHOLD;
+            if (threshold <= 0) return;
+            final long now = SystemClock.uptimeMillis();
+            lastPassTime = now;
+            if (now - windowStart >= LAYOUT_RATE_WINDOW_MS) {
+                // Window without any pass means layout was settled for the whole second
+                passesPerSecond = now - windowStart < 2 * LAYOUT_RATE_WINDOW_MS ? windowPasses : 0;
+                windowStart = now;
+                windowPasses = 0;
+                final boolean idle = now - Math.max(lastChangeTime, lastInputTime) >= LAYOUT_IDLE_THRESHOLD_MS;
+                final boolean suspected = idle && passesPerSecond >= threshold;
+                if (!suspected) {
+                    thrashing = false;
+                    offenders.clear();
+                    frames = null;
+                } else if (frames == null) {
+                    frames = new HashMap<>();
+                }
+            }
+            windowPasses++;
+            if (frames != null) {
+                final ViewGroup container = findContentContainer(activity);
+                if (container != null) {
+                    final Map<View, int[]> previous = frames;
+                    frames = new HashMap<>(Math.max(16, previous.size() * 2));
+                    diffFrames(container, previous, false);
+                    // Rate alone may be caused by animation which doesn't move anything
+                    thrashing |= !offenders.isEmpty();
+                }
+            }
+        }
+
+        private void diffFrames(@NonNull View view, @NonNull Map<View, int[]> previous, boolean parentChanged) {
+            final int[] frame = new int[] { view.getLeft(), view.getTop(), view.getWidth(), view.getHeight() };
+            frames.put(view, frame);
+            final int[] previousFrame = previous.get(view);
+            final boolean changed = previousFrame != null && !Arrays.equals(frame, previousFrame);
+            if (changed && !parentChanged) {
+                // Report only roots of changed subtrees
+                final String description = describe(view);
+                final int[] count = offenders.get(description);
+                if (count != null) {
+                    count[0]++;
+                } else {
+                    offenders.put(description, new int[] { 1 });
+                }
+            }
+            if (view instanceof ViewGroup) {
+                final ViewGroup group = (ViewGroup) view;
+                final int count = group.getChildCount();
+                for (int i = 0; i < count; i++) {
+                    diffFrames(group.getChildAt(i), previous, changed || parentChanged);
+                }
+            }
+        }
+
+        @NonNull
+        private static String describe(@NonNull View view) {
+            final String idName = getViewIdName(view);
+            final String className = view.getClass().getSimpleName();
+            return idName != null ? className + " [id/" + idName + "]" : className;
+        }
+
+        void release() {
+            frames = null;
+            offenders.clear();
+            thrashing = false;
+        }
+    }
+
+    // endregion
+
+    // region Layout Analysis
+
+    // Same limit as lint TooDeepLayout check
+    private static final int LAYOUT_MAX_DEPTH = 10;
+    private static final int LAYOUT_MAX_CHILDREN = 30;
+    private static final int LAYOUT_ANALYSIS_TOP_FINDINGS = 10;
+
+    private static final int SEVERITY_LOW = 1;
+    private static final int SEVERITY_MEDIUM = 3;
+    private static final int SEVERITY_HIGH = 5;
+
+    /**
+     * Analyzes captured view nodes of every activity, so culled and out of scope subtrees are not analyzed.
+     * Live views are still referenced by nodes, so it should be called before the tree is recycled.
+     */
+    private static void appendLayoutAnalysis(@NonNull ApplicationStateTree tree, @NonNull OutputBuilder output) {
+        if (!Configuration.LAYOUT_ANALYSIS) return;
+        boolean headerAppended = false;
+        final LayoutAnalysis analysis = new LayoutAnalysis();
+        for (ActivityNode activityNode : tree.activities) {
+            final ActivityObserver observer = activityNode.observer;
+            if (!isInspected(activityNode)) {
+                // Stopped or out of scope activity keeps findings of its last capture
+                final List<String> entry = observer != null ? observer.layoutAnalysisEntry : null;
+                if (entry != null && entry.isEmpty()) continue;
+                if (!headerAppended) {
+                    output.newline().append(HEADER_LAYOUT_ANALYSIS);
+                    headerAppended = true;
+                }
+                appendUninspectedEntry(output, activityNode, entry);
+                continue;
+            }
+            analysis.analyze(activityNode);
+            if (analysis.findings.isEmpty()) {
+                if (observer != null) {
+                    observer.layoutAnalysisEntry = Collections.emptyList();
+                }
+                continue;
+            }
+            if (!headerAppended) {
+                output.newline().append(HEADER_LAYOUT_ANALYSIS);
+                headerAppended = true;
+            }
+            output.startRecording();
+            final List<LayoutFinding> findings = analysis.findings;
+            Collections.sort(findings, new Comparator<LayoutFinding>() {
+                @Override
+                public int compare(LayoutFinding left, LayoutFinding right) {
+                    return right.severity - left.severity;
+                }
+            });
+            output.append(" - ").append(activityNode.classLink)
+                    .append(": score ").append(analysis.score)
+                    .append(", ").append(findings.size()).append(findings.size() == 1 ? " finding" : " findings")
+                    .newline();
+            final int size = Math.min(findings.size(), LAYOUT_ANALYSIS_TOP_FINDINGS);
+            for (int i = 0; i < size; i++) {
+                final LayoutFinding finding = findings.get(i);
+                output.append("    [").append(formatSeverity(finding.severity)).append("] ")
+                        .append(finding.description).append(" at ").append(finding.path)
+                        .newline();
+            }
+            if (findings.size() > size) {
+                output.append("    and ").append(findings.size() - size).append(" more").newline();
+            }
+            final List<String> entry = output.stopRecording();
+            if (observer != null) {
+                observer.layoutAnalysisEntry = entry;
+            }
+        }
+    }
+
+    /**
+     * Whether views of activity node are captured by this report, so per-activity sections can inspect them.
+     */
+    private static boolean isInspected(@NonNull ActivityNode activityNode) {
+        return activityNode.captured && activityNode.cachedLines == null;
+    }
+
+    /**
+     * Appends section entry of activity which is not captured by this report.
+     *
+     * @param entry lines recorded by the last capture of activity, null if it was never captured.
+     */
+    private static void appendUninspectedEntry(@NonNull OutputBuilder output, @NonNull ActivityNode activityNode,
+                                               @Nullable List<String> entry) {
+        if (entry == null) {
+            output.append(" - ").append(activityNode.classLink).append(": not inspected").newline();
+            return;
+        }
+        final String header = entry.get(0);
+        output.append(header.substring(0, header.length() - 1)).append(" (not re-inspected)").newline();
+        output.appendLines(entry.subList(1, entry.size()));
+    }
+
+    @NonNull
+    private static String formatSeverity(int severity) {
+        switch (severity) {
+            case SEVERITY_HIGH: return "high";
+            case SEVERITY_MEDIUM: return "medium";
+            default: return "low";
+        }
+    }
+
+    private static class LayoutFinding {
+        final int severity;
+        @NonNull
+        final String description;
+        @NonNull
+        final String path;
+
+        LayoutFinding(int severity, @NonNull String description, @NonNull String path) {
+            this.severity = severity;
+            this.description = description;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Walks captured view nodes looking for layouts which are expensive to measure and draw.
+     * Score of activity is sum of severities of its findings.
+     */
+    private static class LayoutAnalysis {
+
+        final List<LayoutFinding> findings = new ArrayList<>();
+        int score;
+
+        // Views and fragments from content container to current node, described only for findings
+        private final List<Object> path = new ArrayList<>();
+
+        void analyze(@NonNull ActivityNode activityNode) {
+            findings.clear();
+            score = 0;
+            path.clear();
+            for (ViewNode viewNode : activityNode.views) {
+                visit(viewNode, 1, false, false);
+            }
+            // Views of fragments which are not merged into hierarchy are out of content container
+            for (FragmentNode fragmentNode : activityNode.fragment) {
+                visit(fragmentNode, 0, false, false);
+            }
+        }
+
+        private void visit(@NonNull FragmentNode node, int parentDepth, boolean weighted, boolean deep) {
+            path.add(node.fragment);
+            for (FragmentNode child : node.child) {
+                visit(child, 0, false, false);
+            }
+            if (node.view != null) {
+                visit(node.view, parentDepth + 1, weighted, deep);
+            }
+            path.remove(path.size() - 1);
+        }
+
+        /**
+         * @param weighted whether some ancestor is a {@link LinearLayout} measuring its children by weights.
+         * @param deep whether depth of the subtree is already checked at some ancestor.
+         */
+        private void visit(@NonNull ViewNode node, int depth, boolean weighted, boolean deep) {
+            final View view = node.view;
+            // Gone subtrees are neither measured nor drawn
+            if (view == null || node.visibility == View.GONE) return;
+            path.add(view);
+            if (!deep && depth == LAYOUT_MAX_DEPTH) {
+                // Reported once at the limit, not for every branch below it
+                final int levels = depth - 1 + maxDepth(node);
+                if (levels > LAYOUT_MAX_DEPTH) {
+                    report(SEVERITY_MEDIUM, "too deep (" + levels + " levels)");
+                }
+                deep = true;
+            }
+            if (view instanceof ViewGroup && node.culledDescendants == 0) {
+                final ViewGroup group = (ViewGroup) view;
+                final int count = group.getChildCount();
+                if (count == 1 && node.fragments.isEmpty() && isRedundant(group)) {
+                    report(SEVERITY_LOW, "redundant nesting");
+                }
+                if (count > LAYOUT_MAX_CHILDREN) {
+                    report(SEVERITY_MEDIUM, "too wide (" + count + " children)");
+                }
+                if (usesWeights(group)) {
+                    if (weighted) {
+                        // Every level of weights measures its children twice
+                        report(SEVERITY_HIGH, "nested weights");
+                    }
+                    weighted = true;
+                }
+            }
+            for (FragmentNode fragmentNode : node.fragments) {
+                visit(fragmentNode, depth, weighted, deep);
+            }
+            for (ViewNode child : node.child) {
+                visit(child, depth + 1, weighted, deep);
+            }
+            path.remove(path.size() - 1);
+        }
 
-        if (Configuration.APPEND_VIEW_ID) {
-            final int id = view.getId();
-            if (id != View.NO_ID && !isViewIdGenerated(id)) {
-                try {
-                    final String idName = view.getResources().getResourceEntryName(id);
-                    if (idName != null) {
-                        output.append(" [id/").append(idName).append("]");
-                    }
-                } catch (Resources.NotFoundException e) {
-                    Log.w(Configuration.LOG_TAG, "Failed to obtain view id name. Possibly id was manually generated.");
+        private void report(int severity, @NonNull String description) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < path.size(); i++) {
+                if (i > 0) builder.append(" > ");
+                final Object element = path.get(i);
+                if (element instanceof View) {
+                    builder.append(LayoutMonitor.describe((View) element));
+                } else {
+                    builder.append('(').append(element.getClass().getSimpleName()).append(')');
                 }
             }
+            findings.add(new LayoutFinding(severity, description, builder.toString()));
+            score += severity;
         }
 
-        if (Configuration.APPEND_VIEW_LOCATION) {
-            if (view.getParent() != null) {
-                if (visibility == View.GONE) {
-                    output.append(" [gone]");
-                } else {
-                    final Rect location = new Rect();
-                    view.getGlobalVisibleRect(location);
-                    output.append(" ").append(formatLocation(location));
+        private static int maxDepth(@NonNull ViewNode node) {
+            int depth = 0;
+            for (FragmentNode fragmentNode : node.fragments) {
+                if (fragmentNode.view != null) {
+                    depth = Math.max(depth, maxDepth(fragmentNode.view));
                 }
-            } else {
-                output.append(" [out of layout]");
             }
+            for (ViewNode child : node.child) {
+                depth = Math.max(depth, maxDepth(child));
+            }
+            return depth + 1;
         }
 
-        output.newline();
+        /**
+         * Same as lint UselessParent check: single child group without background and padding could be
+         * replaced by its child, unless the group scrolls or recycles its children.
+         */
+        private static boolean isRedundant(@NonNull ViewGroup group) {
+            if (group.getBackground() != null) return false;
+            if (group.getPaddingLeft() != 0 || group.getPaddingTop() != 0
+                    || group.getPaddingRight() != 0 || group.getPaddingBottom() != 0) return false;
+            if (group instanceof ScrollView || group instanceof HorizontalScrollView || group instanceof AdapterView) {
+                return false;
+            }
+            // Library containers are not dependencies of Spectrum, so match them by name
+            for (Class<?> cls = group.getClass(); cls != null && cls != ViewGroup.class; cls = cls.getSuperclass()) {
+                final String name = cls.getName();
+                if (name.endsWith("ScrollView") || name.endsWith("RecyclerView") || name.contains("ViewPager")) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
-        for (FragmentNode fragmentNode : node.fragments) {
-            visitFragment(fragmentNode, level + 1, output);
+        private static boolean usesWeights(@NonNull ViewGroup group) {
+            if (!(group instanceof LinearLayout)) return false;
+            if (((LinearLayout) group).getWeightSum() > 0) return true;
+            final int count = group.getChildCount();
+            for (int i = 0; i < count; i++) {
+                final ViewGroup.LayoutParams params = group.getChildAt(i).getLayoutParams();
+                if (params instanceof LinearLayout.LayoutParams && ((LinearLayout.LayoutParams) params).weight > 0) {
+                    return true;
+                }
+            }
+            return false;
         }
+    }
 
-        for (ViewNode viewNode : node.child) {
-            visitView(viewNode, level + 2, output);
+    // endregion
+
+    // region Drawable Memory
+
+    private static void appendDrawableMemory(@NonNull ApplicationStateTree tree, @NonNull OutputBuilder output) {
+        if (!Configuration.DRAWABLE_MEMORY) return;
+        boolean headerAppended = false;
+        final DrawableRollup rollup = new DrawableRollup();
+        for (ActivityNode activityNode : tree.activities) {
+            final ActivityObserver observer = activityNode.observer;
+            if (!isInspected(activityNode)) {
+                // Stopped or out of scope activity keeps totals of its last capture
+                final List<String> entry = observer != null ? observer.drawableMemoryEntry : null;
+                if (entry != null && entry.isEmpty()) continue;
+                if (!headerAppended) {
+                    output.newline().append(HEADER_DRAWABLE_MEMORY);
+                    headerAppended = true;
+                }
+                appendUninspectedEntry(output, activityNode, entry);
+                continue;
+            }
+            rollup.collect(activityNode);
+            if (rollup.total.views == 0) {
+                if (observer != null) {
+                    observer.drawableMemoryEntry = Collections.emptyList();
+                }
+                continue;
+            }
+            if (!headerAppended) {
+                output.newline().append(HEADER_DRAWABLE_MEMORY);
+                headerAppended = true;
+            }
+            output.startRecording();
+            appendDrawableTotal(output.append(" - ").append(activityNode.classLink).append(": "), rollup.total);
+            for (DrawableTotal fragmentTotal : rollup.fragments) {
+                if (fragmentTotal.views == 0) continue;
+                output.append("   ");
+                for (int i = 0; i < fragmentTotal.level; i++) {
+                    output.append("  ");
+                }
+                appendDrawableTotal(output.append(fragmentTotal.classLink).append(": "), fragmentTotal);
+            }
+            final List<String> entry = output.stopRecording();
+            if (observer != null) {
+                observer.drawableMemoryEntry = entry;
+            }
         }
     }
 
-    private static void visitFragment(@NonNull FragmentNode node, int level, @NonNull OutputBuilder output) {
-        indent(output, level)
-                .append(isDialogFragment(node.fragment)
-                        ? "◇[DialogFragment] "
-                        : isAttachedToLayout(node.fragment)
-                                ? "■[Fragment] "
-                                : "□[Fragment(out-of-layout)] ")
-                .append(formatClassLink(node.fragment));
-        if (node.fragment.getTag() != null) {
-            output.append(" [tag \'").append(node.fragment.getTag()).append("\']");
+    private static void appendDrawableTotal(@NonNull OutputBuilder output, @NonNull DrawableTotal total) {
+        appendBytes(output, total.bytes)
+                .append(" in ").append(total.views).append(total.views == 1 ? " view" : " views");
+        if (total.oversized > 0) {
+            output.append(", ").append(total.oversized).append(" oversized");
         }
         output.newline();
+    }
 
-        // If fragment inside view hierarchy, increase indent by 1 otherwise by 2
-        final int nextLevel = node.view != null ? level + 1 : level + 2;
+    private static class DrawableTotal {
+        String classLink;
+        int level;
+        long bytes;
+        int views;
+        int oversized;
+
+        void add(@NonNull ViewNode node) {
+            bytes += node.drawableBytes;
+            views++;
+            if (node.drawableOversized) oversized++;
+        }
+    }
 
-        for (FragmentNode fragmentNode : node.child) {
-            visitFragment(fragmentNode, nextLevel, output);
+    /**
+     * Sums bitmap memory of captured views per activity and per fragment owning them,
+     * totals of fragments include their child fragments.
+     */
+    private static class DrawableRollup {
+
+        final DrawableTotal total = new DrawableTotal();
+        // Totals of fragments in hierarchy order
+        final List<DrawableTotal> fragments = new ArrayList<>();
+        // Fragments from activity to current node
+        private final List<DrawableTotal> owners = new ArrayList<>();
+
+        void collect(@NonNull ActivityNode activityNode) {
+            total.bytes = 0;
+            total.views = 0;
+            total.oversized = 0;
+            fragments.clear();
+            owners.clear();
+            for (ViewNode viewNode : activityNode.views) {
+                visit(viewNode);
+            }
+            for (FragmentNode fragmentNode : activityNode.fragment) {
+                visit(fragmentNode);
+            }
         }
 
-        if (node.view != null) {
-            visitView(node.view, nextLevel, output);
+        private void visit(@NonNull FragmentNode node) {
+            final DrawableTotal fragmentTotal = new DrawableTotal();
+            fragmentTotal.classLink = node.classLink;
+            fragmentTotal.level = owners.size();
+            fragments.add(fragmentTotal);
+            owners.add(fragmentTotal);
+            for (FragmentNode child : node.child) {
+                visit(child);
+            }
+            if (node.view != null) {
+                visit(node.view);
+            }
+            owners.remove(owners.size() - 1);
+        }
+
+        private void visit(@NonNull ViewNode node) {
+            if (node.drawableBytes > 0 || node.drawableOversized) {
+                total.add(node);
+                for (int i = 0; i < owners.size(); i++) {
+                    owners.get(i).add(node);
+                }
+            }
+            for (FragmentNode fragmentNode : node.fragments) {
+                visit(fragmentNode);
+            }
+            for (ViewNode child : node.child) {
+                visit(child);
+            }
         }
     }
 
     // endregion
 
-    // region ApplicationStateTree building
+    // region Format Utils
+
+    // Copy-on-grow, so formatting threads read it without locking
+    private static volatile String[] indents = new String[] { "" };
+
+    private static final Map<Class<?>, String> classLinks = new HashMap<>();
+
+    // Immutable, replaced as a whole when default locale changes, so readers never see a mixed state
+    private static volatile NumberFormat numberFormat;
 
     @NonNull
-    private static ApplicationStateTree buildAppStateTree() {
-        final ApplicationStateTree tree = ApplicationStateTree.obtain();
-        for (ActivityObserver observer : activityObservers) {
-            final ActivityNode activityNode = buildActivityNode(observer);
-            tree.activities.add(activityNode);
-        }
-        return tree;
+    private static OutputBuilder indent(@NonNull OutputBuilder builder, int level) {
+        return builder.append(getIndent(level));
     }
 
     @NonNull
-    private static ActivityNode buildActivityNode(@NonNull ActivityObserver observer) {
-        final ActivityNode node = ActivityNode.obtain();
-        node.activity = observer.activity;
-        node.state = observer.state;
-        final Activity activity = observer.activity;
-        final List<FragmentNode> fragments = buildFragmentNodes(activity);
-        if (Configuration.SHOW_VIEW_HIERARCHY) {
-            final View contentView = activity.getWindow().getDecorView().findViewById(android.R.id.content);
-            if (contentView instanceof ViewGroup) {
-                final ViewGroup container = (ViewGroup) contentView;
-                final int count = container.getChildCount();
-                final Map<View, ViewNode> viewIndex = new HashMap<>();
-                for (int i = 0; i < count; i++) {
-                    final ViewNode viewNode = buildViewNode(container.getChildAt(i), viewIndex);
-                    node.views.add(viewNode);
-                }
-                mergeFragmentsIntoViews(fragments, viewIndex);
+    private static String getIndent(int level) {
+        final String[] cached = indents;
+        if (level < cached.length) {
+            return cached[level];
+        }
+        synchronized (Spectrum.class) {
+            final String[] current = indents;
+            if (level < current.length) {
+                return current[level];
+            }
+            final String[] grown = Arrays.copyOf(current, level + 1);
+            for (int size = current.length; size <= level; size++) {
+                grown[size] = grown[size - 1].concat((size - 1) % 2 == 0 ? "⡇ " : "  ");
             }
+            indents = grown;
+            return grown[level];
         }
-        node.fragment.addAll(fragments);
-        return node;
     }
 
     @NonNull
-    private static ViewNode buildViewNode(@NonNull View view, @NonNull Map<View, ViewNode> viewIndex) {
-        final ViewNode node = ViewNode.obtain();
-        node.view = view;
-        viewIndex.put(view, node);
-        if (view instanceof ViewGroup) {
-            final ViewGroup group = (ViewGroup) view;
-            final int count = group.getChildCount();
-            for (int i = 0; i < count; i++) {
-                final ViewNode child = buildViewNode(group.getChildAt(i), viewIndex);
-                node.child.add(child);
-            }
-        }
-        return node;
+    private static String formatClassLink(@NonNull Object obj) {
+        return formatClassLink(obj.getClass());
     }
 
     @NonNull
-    private static List<FragmentNode> buildFragmentNodes(@NonNull Activity activity) {
-        if (activity instanceof FragmentActivity) {
-            final FragmentManager manager = ((FragmentActivity) activity).getSupportFragmentManager();
-            return buildFragmentNodes(manager);
+    private static String formatClassLink(@NonNull Class<?> cls) {
+        String link = classLinks.get(cls);
+        if (link == null) {
+            link = buildClassLink(cls);
+            classLinks.put(cls, link);
         }
-        return Collections.emptyList();
+        return link;
     }
 
     @NonNull
-    private static List<FragmentNode> buildFragmentNodes(@NonNull FragmentManager manager) {
-        final List<Fragment> fragments = manager.getFragments();
-        final List<FragmentNode> nodes = new ArrayList<>(fragments.size());
-        for (Fragment fragment : fragments) {
-            final FragmentNode node = buildFragmentNode(fragment);
-            nodes.add(node);
-        }
-        return nodes;
+    private static String buildClassLink(@NonNull Class<?> cls) {
+        final Package classPackage = cls.getPackage();
+        return buildClassLink(classPackage != null ? classPackage.getName() : null, cls.getSimpleName(),
+                isKotlinClass(cls));
     }
 
+    /**
+     * Class link of recorded class which may be not loadable, e.g. on JVM.
+     */
     @NonNull
-    private static FragmentNode buildFragmentNode(@NonNull Fragment fragment) {
-        final FragmentNode node = FragmentNode.obtain();
-        node.fragment = fragment;
-        final FragmentManager childManager = fragment.getChildFragmentManager();
-        for (Fragment child : childManager.getFragments()) {
-            final FragmentNode childNode = buildFragmentNode(child);
-            node.child.add(childNode);
-        }
-        return node;
+    static String buildClassLink(@NonNull String className, boolean kotlin) {
+        final int packageEnd = className.lastIndexOf('.');
+        final String packageName = packageEnd >= 0 ? className.substring(0, packageEnd) : null;
+        // Same as Class#getSimpleName for nested classes, anonymous ones keep their number
+        final String simpleName = className.substring(Math.max(packageEnd, className.lastIndexOf('$')) + 1);
+        return buildClassLink(packageName, simpleName, kotlin);
     }
 
-    private static void mergeFragmentsIntoViews(@NonNull List<FragmentNode> fragments,
-                                                @NonNull Map<View, ViewNode> viewIndex) {
-        for (int i = 0; i < fragments.size(); ) {
-            boolean merged = false;
-            final FragmentNode fragmentNode = fragments.get(i);
-            final View fragmentView = fragmentNode.fragment.getView();
-            if (fragmentView != null) {
-                final ViewParent parent = fragmentView.getParent();
-                if (parent instanceof View) {
-                    final ViewNode parentViewNode = viewIndex.get(parent);
-                    if (parentViewNode != null) {
-                        // Insert fragment node between parent and fragment views
-                        final ViewNode fragmentViewNode = viewIndex.get(fragmentView);
-                        parentViewNode.child.remove(fragmentViewNode);
-                        parentViewNode.fragments.add(fragmentNode);
-                        fragmentNode.view = fragmentViewNode;
-                        fragments.remove(i);
-                        merged = true;
-                    }
-                }
-            }
-            mergeFragmentsIntoViews(fragmentNode.child, viewIndex);
-            if (!merged) i++;
+    @NonNull
+    private static String buildClassLink(@Nullable String packageName, @NonNull String simpleName, boolean kotlin) {
+        final StringBuilder builder = new StringBuilder();
+        if (Configuration.APPEND_PACKAGES && packageName != null) {
+            builder.append(packageName);
         }
+        return builder.append(".(")
+                .append(simpleName)
+                .append('.')
+                .append(kotlin ? "kt" : "java")
+                .append(":0)")
+                .toString();
     }
 
-    // endregion
-
-    // region Format Utils
-
+    @SuppressLint("DefaultLocale")
     @NonNull
-    private static OutputBuilder indent(@NonNull OutputBuilder builder, int level) {
-        for (int i = 0; i < level; i++) {
-            indent(builder, i % 2 == 0);
+    private static OutputBuilder appendLocation(@NonNull OutputBuilder output, @NonNull ViewNode node) {
+        if (!getNumberFormat().asciiDigits) {
+            return output.append(String.format("[%d ⇔ %d]×[%d ⇕ %d]", node.left, node.right, node.top, node.bottom));
         }
-        return builder;
+        return output.append('[').append(node.left).append(" ⇔ ").append(node.right)
+                .append("]×[").append(node.top).append(" ⇕ ").append(node.bottom).append(']');
     }
 
-    @SuppressWarnings("UnusedReturnValue")
     @NonNull
-    private static OutputBuilder indent(@NonNull OutputBuilder builder, boolean anchor) {
-        if (anchor) {
-            return builder.append("⡇ ");
-        } else {
-            return builder.append("  ");
+    private static OutputBuilder appendBuildTime(@NonNull OutputBuilder output, long buildTimeNs) {
+        final float ms = buildTimeNs / 1000000f;
+        final NumberFormat format = getNumberFormat();
+        if (!format.asciiDigits) {
+            return output.append(String.format(Locale.getDefault(), "Report built in %.1f ms\n", ms));
         }
+        // Same half-up rounding as %.1f
+        final long tenths = Math.round(ms * 10.0);
+        return output.append("Report built in ")
+                .append((int) (tenths / 10))
+                .append(format.decimalSeparator)
+                .append((int) (tenths % 10))
+                .append(" ms\n");
     }
 
     @NonNull
-    private static String formatClassLink(@NonNull Object obj) {
-        final Class<?> cls = obj.getClass();
-        final String className = cls.getSimpleName();
-        final String sourceExt = getSourceFileExtension(cls);
-        if (Configuration.APPEND_PACKAGES) {
-            final Package classPackage = cls.getPackage();
-            if (classPackage != null) {
-                return String.format("%s.(%s.%s:0)", classPackage.getName(), className, sourceExt);
-            }
+    private static OutputBuilder appendBytes(@NonNull OutputBuilder output, long bytes) {
+        if (bytes < 1024) {
+            return output.append((int) bytes).append(" B");
+        }
+        final boolean mega = bytes >= 1024 * 1024;
+        final double value = mega ? bytes / (1024.0 * 1024.0) : bytes / 1024.0;
+        final String unit = mega ? " MB" : " KB";
+        final NumberFormat format = getNumberFormat();
+        if (!format.asciiDigits) {
+            return output.append(String.format(Locale.getDefault(), "%.1f", value)).append(unit);
         }
-        return String.format(".(%s.%s:0)", className, sourceExt);
+        final long tenths = Math.round(value * 10.0);
+        return output.append((int) (tenths / 10))
+                .append(format.decimalSeparator)
+                .append((int) (tenths % 10))
+                .append(unit);
     }
 
+    /**
+     * Number format of default locale. Main thread resolves it before starting formatting threads,
+     * those re-resolve it only if default locale is changed in the middle of a report.
+     */
     @NonNull
-    private static String getSourceFileExtension(@NonNull Class<?> cls) {
-        return isKotlinClass(cls) ? "kt" : "java";
+    private static NumberFormat getNumberFormat() {
+        final Locale locale = Locale.getDefault();
+        NumberFormat format = numberFormat;
+        if (format == null || !locale.equals(format.locale)) {
+            format = new NumberFormat(locale);
+            numberFormat = format;
+        }
+        return format;
     }
 
-    @SuppressLint("DefaultLocale")
-    @NonNull
-    private static String formatLocation(@NonNull Rect rect) {
-        return String.format("[%d ⇔ %d]×[%d ⇕ %d]", rect.left, rect.right, rect.top, rect.bottom);
+    /**
+     * Symbols of default locale used to append numbers without formatter.
+     */
+    private static final class NumberFormat {
+        final Locale locale;
+        // Whether locale formats numbers with ASCII digits, so they can be appended directly
+        final boolean asciiDigits;
+        final char decimalSeparator;
+
+        NumberFormat(@NonNull Locale locale) {
+            final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            this.locale = locale;
+            this.asciiDigits = symbols.getZeroDigit() == '0';
+            this.decimalSeparator = symbols.getDecimalSeparator();
+        }
     }
 
     // endregion
 
     // region Common Utils
 
+    @Nullable
+    static String getViewIdName(@NonNull View view) {
+        final int id = view.getId();
+        if (id != View.NO_ID && !isViewIdGenerated(id)) {
+            try {
+                return view.getResources().getResourceEntryName(id);
+            } catch (Resources.NotFoundException e) {
+                Log.w(Configuration.LOG_TAG, "Failed to obtain view id name. Possibly id was manually generated.");
+            }
+        }
+        return null;
+    }
+
     private static boolean isAttachedToLayout(@NonNull Fragment fragment) {
         final View view = fragment.getView();
         if (view != null) {
@@ -658,7 +3300,7 @@ public class Spectrum {
         return fragment instanceof DialogFragment;
     }
 
-    private static boolean isKotlinClass(@NonNull Class<?> cls) {
+    static boolean isKotlinClass(@NonNull Class<?> cls) {
         for (Annotation annotation : cls.getDeclaredAnnotations()) {
             if ("kotlin.Metadata".equals(annotation.annotationType().getName())) {
                 return true;
@@ -704,7 +3346,7 @@ public class Spectrum {
         pool.add(element);
     }
 
-    private static void recycleAppStateTree(@NonNull ApplicationStateTree tree) {
+    static void recycleAppStateTree(@NonNull ApplicationStateTree tree) {
         for (ActivityNode activityNode : tree.activities) {
             recycleActivityNode(activityNode);
         }
@@ -754,6 +3396,16 @@ public class Spectrum {
 
     private static class TextViewInspector implements ViewInspector {
 
+        // Reusable buffer for text prefix, so large spannables are never copied entirely
+        private char[] buffer = new char[0];
+        private int charsSpent;
+        private long timeSpentNs;
+
+        void resetBudget() {
+            charsSpent = 0;
+            timeSpentNs = 0;
+        }
+
         @Override
         public boolean canInspect(@NonNull View view) {
             return view instanceof TextView;
@@ -762,16 +3414,118 @@ public class Spectrum {
         @Override
         public void inspect(@NonNull View view, @NonNull OutputBuilder output) {
             if (view instanceof TextView) {
+                if (charsSpent >= Configuration.TEXT_CHARS_BUDGET
+                        || timeSpentNs >= Configuration.TEXT_TIME_BUDGET_MS * 1000000L) {
+                    output.append(" [text over budget]");
+                    return;
+                }
+                final long start = System.nanoTime();
                 final TextView tv = (TextView) view;
                 final CharSequence charSequence = tv.getText();
                 if (charSequence != null) {
-                    String text = charSequence.toString();
-                    if (text.length() > 40) {
-                        text = text.substring(38).concat("…");
+                    final int maxLength = Math.max(Configuration.TEXT_MAX_LENGTH, 1);
+                    final int length = charSequence.length();
+                    final boolean truncate = length > maxLength;
+                    final int count = truncate ? maxLength - 1 : length;
+                    if (buffer.length < count) {
+                        buffer = new char[count];
                     }
-                    output.append(" \"").append(text).append("\"");
+                    TextUtils.getChars(charSequence, 0, count, buffer, 0);
+                    output.append(" \"").append(new String(buffer, 0, count));
+                    output.append(truncate ? "…\"" : "\"");
+                    charsSpent += count;
+                }
+                timeSpentNs += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Appends size of bitmaps held by image and background drawables, e.g.
+     * {@code [image 1080×1920 in 270×480, 7.9 MB, oversized]}. Only drawables with known byte size
+     * are inspected, bitmaps of vector, color and nine-patch drawables are not accessible.
+     */
+    private static class DrawableInspector implements ViewInspector {
+
+        // Decoded bitmap with twice more pixels than view shows wastes at least half of its memory
+        private static final int OVERSIZE_RATIO = 2;
+
+        // Bitmaps counted by current capture, shared bitmap is attributed to the first view using it.
+        // Weak, so bitmaps are not held by Spectrum between captures.
+        private final Map<Bitmap, Boolean> counted = new WeakHashMap<>();
+        private long bytes;
+        private boolean oversized;
+
+        void reset() {
+            counted.clear();
+        }
+
+        /**
+         * Move results of last inspection into captured node.
+         */
+        void detach(@NonNull ViewNode node) {
+            node.drawableBytes = bytes;
+            node.drawableOversized = oversized;
+            bytes = 0;
+            oversized = false;
+        }
+
+        @Override
+        public boolean canInspect(@NonNull View view) {
+            return Configuration.DRAWABLE_MEMORY;
+        }
+
+        @Override
+        public void inspect(@NonNull View view, @NonNull OutputBuilder output) {
+            if (view instanceof ImageView) {
+                inspect("image", ((ImageView) view).getDrawable(), view, output);
+            }
+            inspect("background", view.getBackground(), view, output);
+        }
+
+        private void inspect(@NonNull String kind, @Nullable Drawable drawable,
+                             @NonNull View view, @NonNull OutputBuilder output) {
+            if (drawable instanceof BitmapDrawable) {
+                final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+                if (bitmap != null && !bitmap.isRecycled()) {
+                    inspect(kind, bitmap, view, output);
                 }
+            } else if (drawable instanceof DrawableContainer) {
+                // State lists and level lists hold bitmaps of all states, but only current one is drawn
+                final Drawable current = drawable.getCurrent();
+                if (current != drawable) {
+                    inspect(kind, current, view, output);
+                }
+            } else if (drawable instanceof LayerDrawable) {
+                final LayerDrawable layers = (LayerDrawable) drawable;
+                final int count = layers.getNumberOfLayers();
+                for (int i = 0; i < count; i++) {
+                    inspect(kind, layers.getDrawable(i), view, output);
+                }
+            }
+        }
+
+        private void inspect(@NonNull String kind, @NonNull Bitmap bitmap,
+                             @NonNull View view, @NonNull OutputBuilder output) {
+            final int width = bitmap.getWidth();
+            final int height = bitmap.getHeight();
+            final long byteCount = Build.VERSION.SDK_INT >= 19 ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+            final long viewPixels = (long) view.getWidth() * view.getHeight();
+            final boolean large = viewPixels > 0 && (long) width * height >= OVERSIZE_RATIO * viewPixels;
+            output.append(" [").append(kind).append(' ').append(width).append('×').append(height)
+                    .append(" in ").append(view.getWidth()).append('×').append(view.getHeight())
+                    .append(", ");
+            appendBytes(output, byteCount);
+            if (counted.put(bitmap, Boolean.TRUE) == null) {
+                bytes += byteCount;
+            } else {
+                output.append(", shared");
+            }
+            if (large) {
+                output.append(", oversized");
+                oversized = true;
             }
+            output.append(']');
         }
     }
 
@@ -813,16 +3567,60 @@ public class Spectrum {
                 new ViewTreeObserver.OnGlobalLayoutListener() {
                     @Override
                     public void onGlobalLayout() {
+                        invalidateCache();
+                        if (awaitingFirstLayout) {
+                            awaitingFirstLayout = false;
+                            onFirstLayout(ActivityObserver.this);
+                        }
+                        layoutMonitor.onLayout(activity);
+                        for (Extension extension : extensions) {
+                            extension.onLayout(activity);
+                        }
                         notifyChangesDetected("layout changed");
                     }
                 };
         @Nullable
         String state;
+        boolean inReportScope = true;
+        // Next global layout is the first one since start, closes transition timing
+        boolean awaitingFirstLayout = true;
+        /**
+         * Hierarchy of stopped activity is frozen until start, so its output is reused between reports.
+         */
+        @Nullable
+        List<String> cachedLines;
+        @Nullable
+        FragmentObserver fragmentObserver;
+        /**
+         * Lines of activity entry in {@code LAYOUT ANALYSIS} section rendered by its last capture,
+         * empty if nothing was found, null if activity was never captured.
+         */
+        @Nullable
+        List<String> layoutAnalysisEntry;
+        // Same for DRAWABLE MEMORY section
+        @Nullable
+        List<String> drawableMemoryEntry;
+        // Window callback wrapper installed by Spectrum, null if it's not used
+        @Nullable
+        ReportGestureCallback windowCallback;
+        final LayoutMonitor layoutMonitor = new LayoutMonitor();
 
         ActivityObserver(@NonNull Activity activity) {
             this.activity = activity;
         }
 
+        boolean isStopped() {
+            return "stopped".equals(state);
+        }
+
+        void invalidateCache() {
+            cachedLines = null;
+        }
+
+        boolean isForeground() {
+            return "resumed".equals(state) || activity.hasWindowFocus();
+        }
+
         @OnLifecycleEvent(Lifecycle.Event.ON_CREATE)
         private void onCreate() {
             activityObservers.add(this);
@@ -834,58 +3632,240 @@ public class Spectrum {
 
         @OnLifecycleEvent(Lifecycle.Event.ON_START)
         private void onStart() {
+            ensureWindowCallback();
+            awaitingFirstLayout = true;
             state = "started";
             notifyStateChanged();
         }
 
         @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
         private void onResume() {
+            ensureWindowCallback();
+            onActivityResumed(this);
             state = "resumed";
             notifyStateChanged();
         }
 
-        @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
-        private void onPause() {
-            state = "paused";
-            notifyStateChanged();
+        @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
+        private void onPause() {
+            onActivityPaused(this);
+            state = "paused";
+            notifyStateChanged();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+        private void onStop() {
+            state = "stopped";
+            notifyStateChanged();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        private void onDestroy() {
+            activity.getWindow().getDecorView().getViewTreeObserver()
+                    .removeGlobalOnLayoutListener(layoutChangeListener);
+            activityObservers.remove(this);
+            activities.remove(activity);
+            layoutMonitor.release();
+            state = "destroyed";
+            notifyStateChanged();
+            for (Extension extension : extensions) {
+                extension.onActivityDestroyed(activity);
+            }
+        }
+
+        private void ensureWindowCallback() {
+            if (windowCallback != null) {
+                windowCallback = installGestureDetectorCallback(activity, windowCallback);
+            }
+        }
+
+        private void notifyStateChanged() {
+            invalidateCache();
+            layoutMonitor.onActivityChanged();
+            for (Extension extension : extensions) {
+                extension.onActivityStateChanged(activity, state);
+            }
+            notifyChangesDetected(formatClassLink(activity) + " " + state);
+        }
+    }
+
+    /**
+     * Keeps live fragment tree of activity, so reports never enumerate fragment managers.
+     */
+    private static class FragmentObserver extends FragmentManager.FragmentLifecycleCallbacks {
+        @Nullable
+        private final ActivityObserver activityObserver;
+        @NonNull
+        private final FragmentManager rootManager;
+        // Fragments of every manager in order of attach
+        private final Map<FragmentManager, List<Fragment>> fragments = new HashMap<>();
+        // Child fragment manager of every fragment which has attached children
+        private final Map<Fragment, FragmentManager> childManagers = new HashMap<>();
+        // Stage timestamps of every attached fragment, see FRAGMENT_STAMP_* indexes, zero when measured.
+        // Identity map keeps entries in its table and arrays are pooled, so callbacks don't allocate.
+        private final Map<Fragment, long[]> timestamps = new IdentityHashMap<>();
+
+        FragmentObserver(@Nullable ActivityObserver activityObserver, @NonNull FragmentManager rootManager) {
+            this.activityObserver = activityObserver;
+            this.rootManager = rootManager;
+            // Activity may be explored when some fragments are already attached
+            collectFragments(rootManager);
+        }
+
+        @NonNull
+        List<Fragment> getFragments() {
+            return getFragments(rootManager);
+        }
+
+        @NonNull
+        List<Fragment> getChildFragments(@NonNull Fragment fragment) {
+            final FragmentManager childManager = childManagers.get(fragment);
+            return childManager != null ? getFragments(childManager) : Collections.<Fragment>emptyList();
         }
 
-        @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
-        private void onStop() {
-            state = "stopped";
-            notifyStateChanged();
+        @NonNull
+        private List<Fragment> getFragments(@NonNull FragmentManager manager) {
+            final List<Fragment> list = fragments.get(manager);
+            return list != null ? list : Collections.<Fragment>emptyList();
         }
 
-        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
-        private void onDestroy() {
-            activity.getWindow().getDecorView().getViewTreeObserver()
-                    .removeGlobalOnLayoutListener(layoutChangeListener);
-            activityObservers.remove(this);
-            activities.remove(activity);
-            state = "destroyed";
-            notifyStateChanged();
+        private void collectFragments(@NonNull FragmentManager manager) {
+            for (Fragment fragment : manager.getFragments()) {
+                addFragment(manager, fragment);
+                final FragmentManager childManager = fragment.getChildFragmentManager();
+                if (!childManager.getFragments().isEmpty()) {
+                    childManagers.put(fragment, childManager);
+                    collectFragments(childManager);
+                }
+            }
         }
 
-        private void notifyStateChanged() {
-            notifyChangesDetected(formatClassLink(activity) + " " + state);
+        private void addFragment(@NonNull FragmentManager manager, @NonNull Fragment fragment) {
+            List<Fragment> list = fragments.get(manager);
+            if (list == null) {
+                list = new ArrayList<>(3);
+                fragments.put(manager, list);
+            }
+            if (!list.contains(fragment)) {
+                list.add(fragment);
+            }
         }
-    }
 
-    private static class FragmentObserver extends FragmentManager.FragmentLifecycleCallbacks {
         @Override
         public void onFragmentAttached(@NonNull FragmentManager fm, @NonNull Fragment f, @NonNull Context context) {
             super.onFragmentAttached(fm, f, context);
+            long[] stamps = timestamps.get(f);
+            if (stamps == null) {
+                stamps = obtainFragmentStamps();
+                timestamps.put(f, stamps);
+            }
+            final long now = System.nanoTime();
+            stamps[FRAGMENT_STAMP_RESUME] = now;
+            stamps[FRAGMENT_STAMP_START] = now;
+            stamps[FRAGMENT_STAMP_VIEW] = 0;
+            // Recursive callbacks are dispatched with root manager, so take fragment's own one
+            final FragmentManager manager = f.getFragmentManager();
+            if (manager != null) {
+                addFragment(manager, f);
+                final Fragment parentFragment = f.getParentFragment();
+                if (parentFragment != null) {
+                    childManagers.put(parentFragment, manager);
+                }
+            }
+            invalidateCache();
             final Fragment parentFragment = f.getParentFragment();
             final String parent = parentFragment != null
                     ? parentFragment.getClass().getName()
                     : context.getClass().getName();
             notifyChangesDetected(formatClassLink(f) + " attached to " + parent);
+            for (Extension extension : extensions) {
+                extension.onFragmentAttached(f);
+            }
         }
 
         @Override
         public void onFragmentDetached(@NonNull FragmentManager fm, @NonNull Fragment f) {
             super.onFragmentDetached(fm, f);
+            final FragmentManager manager = f.getFragmentManager();
+            if (manager != null) {
+                final List<Fragment> list = fragments.get(manager);
+                if (list != null) {
+                    list.remove(f);
+                }
+            }
+            final FragmentManager childManager = childManagers.remove(f);
+            if (childManager != null) {
+                fragments.remove(childManager);
+            }
+            final long[] stamps = timestamps.remove(f);
+            if (stamps != null) {
+                recycleElement(fragmentStampsPool, stamps);
+            }
+            invalidateCache();
             notifyChangesDetected(formatClassLink(f) + " detached");
+            for (Extension extension : extensions) {
+                extension.onFragmentDetached(f);
+            }
+        }
+
+        @Override
+        public void onFragmentCreated(@NonNull FragmentManager fm, @NonNull Fragment f,
+                                      @Nullable Bundle savedInstanceState) {
+            super.onFragmentCreated(fm, f, savedInstanceState);
+            final long[] stamps = timestamps.get(f);
+            if (stamps != null) {
+                stamps[FRAGMENT_STAMP_VIEW] = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void onFragmentViewCreated(@NonNull FragmentManager fm, @NonNull Fragment f,
+                                          @NonNull View v, @Nullable Bundle savedInstanceState) {
+            super.onFragmentViewCreated(fm, f, v, savedInstanceState);
+            measureStage(f, FRAGMENT_STAMP_VIEW);
+            onFragmentViewChanged();
+        }
+
+        @Override
+        public void onFragmentStarted(@NonNull FragmentManager fm, @NonNull Fragment f) {
+            super.onFragmentStarted(fm, f);
+            measureStage(f, FRAGMENT_STAMP_START);
+        }
+
+        @Override
+        public void onFragmentResumed(@NonNull FragmentManager fm, @NonNull Fragment f) {
+            super.onFragmentResumed(fm, f);
+            measureStage(f, FRAGMENT_STAMP_RESUME);
+        }
+
+        /**
+         * Record duration of stage which ends now, if its start is stamped and it is not measured yet.
+         */
+        private void measureStage(@NonNull Fragment f, int stage) {
+            final long[] stamps = timestamps.get(f);
+            if (stamps != null && stamps[stage] != 0) {
+                recordFragmentTiming(f, stage, System.nanoTime() - stamps[stage]);
+                stamps[stage] = 0;
+            }
+        }
+
+        @Override
+        public void onFragmentViewDestroyed(@NonNull FragmentManager fm, @NonNull Fragment f) {
+            super.onFragmentViewDestroyed(fm, f);
+            onFragmentViewChanged();
+        }
+
+        private void onFragmentViewChanged() {
+            // Hierarchy changed but it is not worth a line in report
+            changesGeneration++;
+            invalidateCache();
+        }
+
+        private void invalidateCache() {
+            if (activityObserver != null) {
+                activityObserver.invalidateCache();
+                activityObserver.layoutMonitor.onActivityChanged();
+            }
         }
     }
 
@@ -893,7 +3873,7 @@ public class Spectrum {
 
     // region Application State Structure
 
-    private static class ApplicationStateTree {
+    static class ApplicationStateTree {
 
         final List<ActivityNode> activities = new ArrayList<>();
 
@@ -913,12 +3893,23 @@ public class Spectrum {
         }
     }
 
-    private static class ActivityNode {
+    static class ActivityNode {
+
+        ActivityObserver observer;
 
         Activity activity;
 
+        String classLink;
+
         String state;
 
+        boolean captured = true;
+
+        /**
+         * Output lines of stopped activity rendered by one of previous reports.
+         */
+        List<String> cachedLines;
+
         final List<ViewNode> views = new ArrayList<>();
 
         final List<FragmentNode> fragment = new ArrayList<>(1);
@@ -934,18 +3925,72 @@ public class Spectrum {
         }
 
         void recycle() {
+            observer = null;
             activity = null;
+            classLink = null;
             state = null;
+            captured = true;
+            cachedLines = null;
             views.clear();
             fragment.clear();
             recycleElement(pool, this);
         }
     }
 
-    private static class ViewNode {
+    static class ViewNode {
 
         View view;
 
+        // Detached state of the view, see detachViewNode
+        String classLink;
+        int visibility;
+        boolean viewGroup;
+        boolean attached;
+        String idName;
+        String inspection;
+
+        /**
+         * Count of children at the moment of capture, used by sliced capture to detect mutations.
+         */
+        int childCount;
+
+        /**
+         * Children of the view were changed while sliced capture was in progress.
+         */
+        boolean stale;
+
+        /**
+         * Count of descendants skipped by {@link Configuration#cullHiddenViews(boolean)} culling.
+         */
+        int culledDescendants;
+
+        /**
+         * Bitmap bytes first seen in this view during capture and whether some of its bitmaps
+         * is oversized, see {@link Configuration#drawableMemory(boolean)}.
+         */
+        long drawableBytes;
+        boolean drawableOversized;
+
+        /**
+         * Global visible rect of the view, valid if {@link #hasBounds} is set.
+         */
+        boolean hasBounds;
+        int left;
+        int top;
+        int right;
+        int bottom;
+
+        // Global position of view and clip applied to its children, used to compute child bounds
+        int originX;
+        int originY;
+        int clipLeft;
+        int clipTop;
+        int clipRight;
+        int clipBottom;
+        // Whether clip fields hold actual clip of children, not set below Lollipop
+        boolean clipKnown;
+        boolean transformed;
+
         final List<ViewNode> child = new ArrayList<>(5);
 
         final List<FragmentNode> fragments = new ArrayList<>(3);
@@ -962,16 +4007,33 @@ public class Spectrum {
 
         void recycle() {
             view = null;
+            classLink = null;
+            idName = null;
+            inspection = null;
+            childCount = 0;
+            stale = false;
+            culledDescendants = 0;
+            drawableBytes = 0;
+            drawableOversized = false;
+            hasBounds = false;
+            clipKnown = false;
+            transformed = false;
             child.clear();
             fragments.clear();
             recycleElement(pool, this);
         }
     }
 
-    private static class FragmentNode {
+    static class FragmentNode {
 
         Fragment fragment;
 
+        // Detached state of the fragment
+        String classLink;
+        String tag;
+        boolean dialog;
+        boolean attachedToLayout;
+
         ViewNode view;
 
         final List<FragmentNode> child = new ArrayList<>(3);
@@ -988,6 +4050,8 @@ public class Spectrum {
 
         void recycle() {
             fragment = null;
+            classLink = null;
+            tag = null;
             view = null;
             child.clear();
             recycleElement(pool, this);
@@ -1001,28 +4065,108 @@ public class Spectrum {
     public static class OutputBuilder {
 
         private final List<StringBuilder> messages = new ArrayList<>();
-        private final List<String> line = new ArrayList<>();
         private StringBuilder message = new StringBuilder();
         private int messageBytes = 0;
+        // Current line is written straight into message starting from this index
+        private int lineStart = 0;
         private int lineBytes = 0;
+        private boolean lineOpen = false;
+        private List<String> recording;
+        private List<String> journal;
+
+        @NonNull
+        public OutputBuilder append(@NonNull String string) {
+            message.append(string);
+            lineBytes += utf8Length(string);
+            lineOpen = true;
+            return this;
+        }
+
+        @NonNull
+        public OutputBuilder append(char c) {
+            message.append(c);
+            lineBytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            lineOpen = true;
+            return this;
+        }
 
         @NonNull
-        OutputBuilder append(@NonNull String string) {
-            line.add(string);
-            lineBytes += string.getBytes().length;
+        public OutputBuilder append(int value) {
+            final int length = message.length();
+            message.append(value);
+            lineBytes += message.length() - length;
+            lineOpen = true;
             return this;
         }
 
         @NonNull
         OutputBuilder newline() {
-            line.add("\n");
+            // Line feed is not counted in message size
+            message.append('\n');
             appendLine();
             return this;
         }
 
+        /**
+         * Append lines previously obtained by {@link #stopRecording()}.
+         */
+        @NonNull
+        OutputBuilder appendLines(@NonNull List<String> lines) {
+            for (String recorded : lines) {
+                append(recorded);
+                if (recorded.endsWith("\n")) {
+                    // Same as newline(), line feed is not counted
+                    lineBytes--;
+                }
+                appendLine();
+            }
+            return this;
+        }
+
+        /**
+         * Remove and return text appended to current line, or null if nothing was appended.
+         */
+        @Nullable
+        String takeLine() {
+            if (!lineOpen) return null;
+            final String line = message.substring(lineStart);
+            message.setLength(lineStart);
+            lineBytes = 0;
+            lineOpen = false;
+            return line.isEmpty() ? null : line;
+        }
+
+        /**
+         * Start collecting complete lines appended to this builder.
+         */
+        void startRecording() {
+            recording = new ArrayList<>();
+        }
+
+        @NonNull
+        List<String> stopRecording() {
+            final List<String> recorded = recording != null ? recording : Collections.<String>emptyList();
+            recording = null;
+            return recorded;
+        }
+
+        /**
+         * Start collecting complete lines independently of recording.
+         */
+        void startJournal() {
+            journal = new ArrayList<>();
+        }
+
+        @NonNull
+        List<String> stopJournal() {
+            final List<String> lines = journal != null ? journal : Collections.<String>emptyList();
+            journal = null;
+            return lines;
+        }
+
         @NonNull
         List<String> build() {
-            if (!line.isEmpty()) {
+            if (lineOpen) {
                 appendLine();
                 appendMessage();
             }
@@ -1034,21 +4178,53 @@ public class Spectrum {
         }
 
         private void appendLine() {
+            if (recording != null || journal != null) {
+                final String line = message.substring(lineStart);
+                if (recording != null) {
+                    recording.add(line);
+                }
+                if (journal != null) {
+                    journal.add(line);
+                }
+            }
             if (messageBytes + lineBytes > LOGCAT_BUFFER_SIZE) {
+                // Move the line to the next message, happens once per logcat chunk
+                final String line = message.substring(lineStart);
+                message.setLength(lineStart);
                 appendMessage();
-            }
-            for (String s : line) {
-                message.append(s);
+                message.append(line);
             }
             messageBytes += lineBytes;
             lineBytes = 0;
-            line.clear();
+            lineStart = message.length();
+            lineOpen = false;
         }
 
         private void appendMessage() {
             messages.add(message);
             message = new StringBuilder(" \n");
             messageBytes = 0;
+            lineStart = message.length();
+        }
+
+        private static int utf8Length(@NonNull String string) {
+            final int length = string.length();
+            int bytes = length;
+            for (int i = 0; i < length; i++) {
+                final char c = string.charAt(i);
+                if (c >= 0x80) {
+                    if (c < 0x800) {
+                        bytes += 1;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        bytes += 2;
+                        i++;
+                    } else if (!Character.isSurrogate(c)) {
+                        bytes += 2;
+                    }
+                }
+            }
+            return bytes;
         }
 
     }
@@ -1068,11 +4244,219 @@ public class Spectrum {
         }
     }
 
+    /**
+     * Wraps window callback of activity unless it is still the installed one.
+     *
+     * @param installed wrapper installed before, it is deactivated if the window callback was replaced
+     *                  (e.g. by AppCompat {@code setSupportActionBar}), since it may remain in the new chain.
+     * @return wrapper which is the window callback now, installed one if window has no callback.
+     */
+    @Nullable
+    private static ReportGestureCallback installGestureDetectorCallback(@NonNull Activity activity,
+                                                                        @Nullable ReportGestureCallback installed) {
+        final Window window = activity.getWindow();
+        final Window.Callback callback = window.getCallback();
+        if (callback == null || callback == installed) return installed;
+        if (installed != null) {
+            installed.active = false;
+        }
+        final ReportGestureCallback wrapper;
+        if (callback instanceof ReportGestureCallback) {
+            // Previous wrapper was put back
+            wrapper = (ReportGestureCallback) callback;
+            wrapper.active = true;
+        } else {
+            wrapper = new ReportGestureCallback(callback, activity);
+            window.setCallback(wrapper);
+        }
+        return wrapper;
+    }
+
     private static class ReportGestureSurface extends ViewGroup {
 
+        private final DoubleTapDetector detector = new DoubleTapDetector(getContext());
+
+        ReportGestureSurface(@NonNull Context context) {
+            super(context);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            // no-child to layout
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(@NonNull MotionEvent event) {
+            detector.onTouchEvent(event);
+            return super.onInterceptTouchEvent(event);
+        }
+    }
+
+    /**
+     * Observes touches and keys of activity window before they are dispatched to views and delegates
+     * everything else. Detects report gesture if it is enabled.
+     */
+    private static class ReportGestureCallback implements Window.Callback {
+
+        @NonNull
+        private final Window.Callback delegate;
+        @Nullable
+        private final DoubleTapDetector detector;
+        // Replaced wrapper keeps delegating but doesn't observe events
+        boolean active = true;
+
+        ReportGestureCallback(@NonNull Window.Callback delegate, @NonNull Context context) {
+            this.delegate = delegate;
+            this.detector = Configuration.GESTURE_REPORTING_ENABLED ? new DoubleTapDetector(context) : null;
+        }
+
+        @Override
+        public boolean dispatchTouchEvent(MotionEvent event) {
+            if (active) {
+                lastInputTime = SystemClock.uptimeMillis();
+                if (detector != null) {
+                    detector.onTouchEvent(event);
+                }
+            }
+            return delegate.dispatchTouchEvent(event);
+        }
+
+        @Override
+        public boolean dispatchKeyEvent(KeyEvent event) {
+            if (active) {
+                lastInputTime = SystemClock.uptimeMillis();
+            }
+            return delegate.dispatchKeyEvent(event);
+        }
+
+        @Override
+        public boolean dispatchKeyShortcutEvent(KeyEvent event) {
+            return delegate.dispatchKeyShortcutEvent(event);
+        }
+
+        @Override
+        public boolean dispatchTrackballEvent(MotionEvent event) {
+            return delegate.dispatchTrackballEvent(event);
+        }
+
+        @Override
+        public boolean dispatchGenericMotionEvent(MotionEvent event) {
+            return delegate.dispatchGenericMotionEvent(event);
+        }
+
+        @Override
+        public boolean dispatchPopulateAccessibilityEvent(AccessibilityEvent event) {
+            return delegate.dispatchPopulateAccessibilityEvent(event);
+        }
+
+        @Nullable
+        @Override
+        public View onCreatePanelView(int featureId) {
+            return delegate.onCreatePanelView(featureId);
+        }
+
+        @Override
+        public boolean onCreatePanelMenu(int featureId, @NonNull Menu menu) {
+            return delegate.onCreatePanelMenu(featureId, menu);
+        }
+
+        @Override
+        public boolean onPreparePanel(int featureId, @Nullable View view, @NonNull Menu menu) {
+            return delegate.onPreparePanel(featureId, view, menu);
+        }
+
+        @Override
+        public boolean onMenuOpened(int featureId, @NonNull Menu menu) {
+            return delegate.onMenuOpened(featureId, menu);
+        }
+
+        @Override
+        public boolean onMenuItemSelected(int featureId, @NonNull MenuItem item) {
+            return delegate.onMenuItemSelected(featureId, item);
+        }
+
+        @Override
+        public void onWindowAttributesChanged(WindowManager.LayoutParams attrs) {
+            delegate.onWindowAttributesChanged(attrs);
+        }
+
+        @Override
+        public void onContentChanged() {
+            delegate.onContentChanged();
+        }
+
+        @Override
+        public void onWindowFocusChanged(boolean hasFocus) {
+            delegate.onWindowFocusChanged(hasFocus);
+        }
+
+        @Override
+        public void onAttachedToWindow() {
+            delegate.onAttachedToWindow();
+        }
+
+        @Override
+        public void onDetachedFromWindow() {
+            delegate.onDetachedFromWindow();
+        }
+
+        @Override
+        public void onPanelClosed(int featureId, @NonNull Menu menu) {
+            delegate.onPanelClosed(featureId, menu);
+        }
+
+        @Override
+        public boolean onSearchRequested() {
+            return delegate.onSearchRequested();
+        }
+
+        @TargetApi(Build.VERSION_CODES.M)
+        @Override
+        public boolean onSearchRequested(SearchEvent searchEvent) {
+            return delegate.onSearchRequested(searchEvent);
+        }
+
+        @Nullable
+        @Override
+        public ActionMode onWindowStartingActionMode(ActionMode.Callback callback) {
+            return delegate.onWindowStartingActionMode(callback);
+        }
+
+        @TargetApi(Build.VERSION_CODES.M)
+        @Nullable
+        @Override
+        public ActionMode onWindowStartingActionMode(ActionMode.Callback callback, int type) {
+            return delegate.onWindowStartingActionMode(callback, type);
+        }
+
+        @Override
+        public void onActionModeStarted(ActionMode mode) {
+            delegate.onActionModeStarted(mode);
+        }
+
+        @Override
+        public void onActionModeFinished(ActionMode mode) {
+            delegate.onActionModeFinished(mode);
+        }
+
+        @TargetApi(Build.VERSION_CODES.N)
+        @Override
+        public void onProvideKeyboardShortcuts(List<KeyboardShortcutGroup> data, @Nullable Menu menu, int deviceId) {
+            delegate.onProvideKeyboardShortcuts(data, menu, deviceId);
+        }
+
+        @TargetApi(Build.VERSION_CODES.O)
+        @Override
+        public void onPointerCaptureChanged(boolean hasCapture) {
+            delegate.onPointerCaptureChanged(hasCapture);
+        }
+    }
+
+    private static class DoubleTapDetector {
+
         private static final long SEQUENTIAL_TAP_THRESHOLD_MS = 500;
         private static final float CONTINUE_DETECTION_RADIUS_DP = 30;
-        private final float continueDetectionRadius = dp2px(getContext(), CONTINUE_DETECTION_RADIUS_DP);
+        private final float continueDetectionRadius;
 
         // Last tap info
         private float lastTapX;
@@ -1082,25 +4466,19 @@ public class Spectrum {
         // Sequential taps detected
         private int taps = 0;
 
-        ReportGestureSurface(@NonNull Context context) {
-            super(context);
-        }
-
-        @Override
-        protected void onLayout(boolean changed, int l, int t, int r, int b) {
-            // no-child to layout
+        DoubleTapDetector(@NonNull Context context) {
+            continueDetectionRadius = dp2px(context, CONTINUE_DETECTION_RADIUS_DP);
         }
 
-        @Override
-        public boolean onInterceptTouchEvent(@NonNull MotionEvent event) {
+        void onTouchEvent(@NonNull MotionEvent event) {
             if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                lastInputTime = SystemClock.uptimeMillis();
                 if (detectDoubleTap(event)) {
                     taps = 0;
                     print("Trigger Spectrum report by double tap gesture");
                     report();
                 }
             }
-            return super.onInterceptTouchEvent(event);
         }
 
         private boolean detectDoubleTap(@NonNull MotionEvent event) {
@@ -17,6 +17,18 @@ public class SpectrumInitProvider extends ContentProvider {
         final Context context = getContext();
         if (context instanceof Application) {
             Spectrum.explore((Application) context);
+            if (SpectrumServer.isEnabledByResources(context)) {
+                SpectrumServer.start();
+            }
+            if (LeakMonitor.isEnabledByResources(context)) {
+                LeakMonitor.start();
+            }
+            if (SnapshotHistory.isEnabledByResources(context)) {
+                SnapshotHistory.start();
+            }
+            if (TraceExporter.isEnabledByResources(context)) {
+                TraceExporter.start(context);
+            }
         } else {
             Log.e("SpectrumInitProvider", "Failed to initialize Spectrum");
         }
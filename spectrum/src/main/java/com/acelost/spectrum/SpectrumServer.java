@@ -0,0 +1,576 @@
+package com.acelost.spectrum;
+
+import android.content.Context;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optional server mode. Streams binary hierarchy snapshots to a client connected
+ * to the abstract-namespace local socket.
+ *
+ * Connect from desktop with {@code adb forward tcp:7777 localabstract:spectrum}
+ * and the {@code spectrum-client} module.
+ *
+ * Every frame is {@code [int length][byte type][payload]} where length covers type and payload.
+ * First frame is {@link #FRAME_HELLO}, then a full {@link #FRAME_SNAPSHOT} followed by
+ * {@link #FRAME_CHANGES} and {@link #FRAME_DELTA} frames as changes are detected.
+ *
+ * Snapshot is a pre-order list of node records, each record holds node fields and child count.
+ * Delta replaces ranges of records of the previous snapshot sent to the client. The stream is
+ * reliable and ordered, so the previous snapshot is the one client holds, and every new connection
+ * starts with a full snapshot. Full snapshot is sent instead of delta when most records changed.
+ *
+ * Only the latest snapshot is kept for sending, so a slow client skips intermediate states
+ * instead of queueing them. At most {@link #MAX_PENDING_CHANGES} change descriptions are kept,
+ * older ones are dropped and reported by count.
+ */
+public final class SpectrumServer {
+
+    static final int PROTOCOL_VERSION = 2;
+
+    static final byte FRAME_HELLO = 0;
+    static final byte FRAME_SNAPSHOT = 1;
+    static final byte FRAME_CHANGES = 2;
+    static final byte FRAME_DELTA = 3;
+
+    static final byte NODE_ACTIVITY = 1;
+    static final byte NODE_FRAGMENT = 2;
+    static final byte NODE_VIEW = 3;
+
+    static final byte FLAG_VIEW_GROUP = 1;
+    static final byte FLAG_DIALOG_FRAGMENT = 1 << 1;
+    static final byte FLAG_OUT_OF_LAYOUT = 1 << 2;
+
+    private static final String DEFAULT_SOCKET_NAME = "spectrum";
+    private static final long UPDATE_INTERVAL_MS = 100;
+    private static final int MAX_PENDING_CHANGES = 256;
+    // Bounds time and memory of the diff, larger changes are sent as full snapshots anyway
+    private static final int MAX_DELTA_EDITS = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static SpectrumServer instance;
+
+    private final String socketName;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private EncodedSnapshot latestSnapshot;
+    private boolean clientConnected;
+    private final ArrayDeque<String> changes = new ArrayDeque<>();
+    private int droppedChanges;
+
+    // Accessed by socket thread only
+    private EncodedSnapshot sentSnapshot;
+
+    private volatile boolean running;
+    private LocalServerSocket serverSocket;
+    private Thread thread;
+    private boolean captureScheduled;
+    private int sequence;
+
+    private final Runnable captureRunnable = new Runnable() {
+        @Override
+        public void run() {
+            captureScheduled = false;
+            captureSnapshot();
+        }
+    };
+
+    private final Spectrum.Extension extension = new Spectrum.Extension() {
+        @Override
+        void onChangesDetected(@NonNull String changeDescription) {
+            if (offerChange(changeDescription)) {
+                scheduleCapture(UPDATE_INTERVAL_MS);
+            }
+        }
+    };
+
+    SpectrumServer(@NonNull String socketName) {
+        this.socketName = socketName;
+    }
+
+    /**
+     * Start listening on default socket name.
+     */
+    @MainThread
+    public static void start() {
+        start(DEFAULT_SOCKET_NAME);
+    }
+
+    /**
+     * Start listening on abstract-namespace local socket with given name.
+     */
+    @MainThread
+    public static void start(@NonNull String socketName) {
+        if (instance != null) {
+            if (instance.socketName.equals(socketName)) return;
+            stop();
+        }
+        final SpectrumServer server = new SpectrumServer(socketName);
+        if (server.open()) {
+            instance = server;
+        }
+    }
+
+    /**
+     * Stop listening and disconnect current client.
+     */
+    @MainThread
+    public static void stop() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    static boolean isEnabledByResources(@NonNull Context context) {
+        final int id = context.getResources().getIdentifier("spectrum_server", "bool", context.getPackageName());
+        return id != 0 && context.getResources().getBoolean(id);
+    }
+
+    private boolean open() {
+        try {
+            serverSocket = new LocalServerSocket(socketName);
+        } catch (IOException e) {
+            Log.e(Spectrum.getLogTag(), "Failed to open Spectrum server socket " + socketName, e);
+            return false;
+        }
+        running = true;
+        Spectrum.attach(extension);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "Spectrum-Server");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void close() {
+        running = false;
+        Spectrum.detach(extension);
+        handler.removeCallbacks(captureRunnable);
+        closeQuietly(serverSocket);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    // region Socket thread
+
+    private void serve() {
+        while (running) {
+            LocalSocket socket = null;
+            try {
+                socket = serverSocket.accept();
+                onClientConnected();
+                stream(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            } catch (IOException e) {
+                if (running) {
+                    Log.w(Spectrum.getLogTag(), "Spectrum client disconnected: " + e.getMessage());
+                }
+            } finally {
+                onClientDisconnected();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void stream(@NonNull DataOutputStream output) throws IOException {
+        writeHello(output);
+        output.flush();
+        while (running) {
+            final EncodedSnapshot snapshot;
+            synchronized (lock) {
+                while (running && latestSnapshot == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                snapshot = latestSnapshot;
+                latestSnapshot = null;
+            }
+            if (snapshot == null) return;
+            final byte[] pendingChanges = encodeChanges();
+            if (pendingChanges != null) {
+                writeFrame(output, FRAME_CHANGES, pendingChanges);
+            }
+            writeSnapshot(output, snapshot);
+            output.flush();
+        }
+    }
+
+    /**
+     * Starts a new connection, the first snapshot after it is sent in full.
+     */
+    void writeHello(@NonNull DataOutputStream output) throws IOException {
+        final ByteArrayOutputStream hello = new ByteArrayOutputStream(4);
+        new DataOutputStream(hello).writeInt(PROTOCOL_VERSION);
+        writeFrame(output, FRAME_HELLO, hello.toByteArray());
+        sentSnapshot = null;
+    }
+
+    /**
+     * Writes snapshot as delta against the snapshot written last, or in full if it changed too much.
+     */
+    void writeSnapshot(@NonNull DataOutputStream output, @NonNull EncodedSnapshot snapshot)
+            throws IOException {
+        final EncodedSnapshot base = sentSnapshot;
+        sentSnapshot = snapshot;
+        if (base != null) {
+            final List<NodeRecord> records = snapshot.getRecords();
+            final List<Diff.Hunk> hunks = Diff.compute(base.getRecords(), records, MAX_DELTA_EDITS);
+            int inserted = 0;
+            for (Diff.Hunk hunk : hunks) {
+                inserted += hunk.inserted;
+            }
+            if (inserted <= records.size() / 2) {
+                writeFrame(output, FRAME_DELTA, encodeDelta(base, snapshot, hunks));
+                return;
+            }
+        }
+        writeFrame(output, FRAME_SNAPSHOT, snapshot.payload);
+    }
+
+    @NonNull
+    private static byte[] encodeDelta(@NonNull EncodedSnapshot base,
+                                      @NonNull EncodedSnapshot snapshot,
+                                      @NonNull List<Diff.Hunk> hunks) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(snapshot.sequence);
+        output.writeInt(base.sequence);
+        output.writeLong(snapshot.timestamp);
+        output.writeInt(hunks.size());
+        final List<NodeRecord> records = snapshot.getRecords();
+        for (Diff.Hunk hunk : hunks) {
+            output.writeInt(hunk.start);
+            output.writeInt(hunk.removed);
+            output.writeInt(hunk.inserted);
+            for (int i = hunk.insertStart; i < hunk.insertStart + hunk.inserted; i++) {
+                final NodeRecord record = records.get(i);
+                output.write(record.data, record.offset, record.length);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private void onClientConnected() {
+        synchronized (lock) {
+            latestSnapshot = null;
+            clientConnected = true;
+            changes.clear();
+            droppedChanges = 0;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                scheduleCapture(0);
+            }
+        });
+    }
+
+    private void onClientDisconnected() {
+        synchronized (lock) {
+            clientConnected = false;
+            latestSnapshot = null;
+            changes.clear();
+            droppedChanges = 0;
+        }
+        sentSnapshot = null;
+    }
+
+    private boolean isClientConnected() {
+        synchronized (lock) {
+            return clientConnected;
+        }
+    }
+
+    private static void writeFrame(@NonNull DataOutputStream output, byte type, @NonNull byte[] payload)
+            throws IOException {
+        output.writeInt(payload.length + 1);
+        output.writeByte(type);
+        output.write(payload);
+    }
+
+    /**
+     * @return false if no client is connected.
+     */
+    private boolean offerChange(@NonNull String changeDescription) {
+        synchronized (lock) {
+            if (!clientConnected) return false;
+            if (changes.size() == MAX_PENDING_CHANGES) {
+                // Client doesn't keep up, the oldest descriptions matter least
+                changes.pollFirst();
+                droppedChanges++;
+            }
+            changes.addLast(changeDescription);
+            return true;
+        }
+    }
+
+    @Nullable
+    private byte[] encodeChanges() throws IOException {
+        final String[] pending;
+        final int dropped;
+        synchronized (lock) {
+            if (changes.isEmpty() && droppedChanges == 0) return null;
+            pending = changes.toArray(new String[0]);
+            dropped = droppedChanges;
+            changes.clear();
+            droppedChanges = 0;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(pending.length + (dropped > 0 ? 1 : 0));
+        if (dropped > 0) {
+            writeString(output, dropped + " earlier changes dropped");
+        }
+        for (String change : pending) {
+            writeString(output, change);
+        }
+        return bytes.toByteArray();
+    }
+
+    // endregion
+
+    // region Main thread capture
+
+    private void scheduleCapture(long delay) {
+        if (captureScheduled) return;
+        captureScheduled = true;
+        handler.postDelayed(captureRunnable, delay);
+    }
+
+    private void captureSnapshot() {
+        if (!running || !isClientConnected() || !Spectrum.isInitialized()) return;
+        final EncodedSnapshot snapshot;
+        final Spectrum.ApplicationStateTree tree = Spectrum.buildAppStateTree(false, true);
+        try {
+            snapshot = encodeSnapshot(tree);
+        } catch (IOException e) {
+            Log.e(Spectrum.getLogTag(), "Failed to encode Spectrum snapshot", e);
+            return;
+        } finally {
+            Spectrum.recycleAppStateTree(tree);
+        }
+        synchronized (lock) {
+            // Replace snapshot client has not received yet, it is outdated anyway
+            latestSnapshot = snapshot;
+            lock.notifyAll();
+        }
+    }
+
+    @NonNull
+    EncodedSnapshot encodeSnapshot(@NonNull Spectrum.ApplicationStateTree tree) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        final RecordOutputStream output = new RecordOutputStream(bytes);
+        final int snapshotSequence = ++sequence;
+        final long timestamp = System.currentTimeMillis();
+        output.writeInt(snapshotSequence);
+        output.writeLong(timestamp);
+        output.writeInt(tree.activities.size());
+        for (Spectrum.ActivityNode node : tree.activities) {
+            output.startRecord();
+            output.writeByte(NODE_ACTIVITY);
+            writeString(output, node.activity.getClass().getName());
+            writeString(output, node.state != null ? node.state : "");
+            output.writeInt(node.fragment.size() + node.views.size());
+            for (Spectrum.FragmentNode fragmentNode : node.fragment) {
+                encodeFragment(fragmentNode, output);
+            }
+            for (Spectrum.ViewNode viewNode : node.views) {
+                encodeView(viewNode, output);
+            }
+        }
+        output.flush();
+        return new EncodedSnapshot(snapshotSequence, timestamp, bytes.toByteArray(), output.getRecordOffsets());
+    }
+
+    private void encodeFragment(@NonNull Spectrum.FragmentNode node, @NonNull RecordOutputStream output)
+            throws IOException {
+        output.startRecord();
+        output.writeByte(NODE_FRAGMENT);
+        writeString(output, node.fragment.getClass().getName());
+        writeString(output, node.tag != null ? node.tag : "");
+        byte flags = 0;
+        if (node.dialog) flags |= FLAG_DIALOG_FRAGMENT;
+        if (!node.attachedToLayout) flags |= FLAG_OUT_OF_LAYOUT;
+        output.writeByte(flags);
+        output.writeInt(node.child.size() + (node.view != null ? 1 : 0));
+        for (Spectrum.FragmentNode childNode : node.child) {
+            encodeFragment(childNode, output);
+        }
+        if (node.view != null) {
+            encodeView(node.view, output);
+        }
+    }
+
+    private void encodeView(@NonNull Spectrum.ViewNode node, @NonNull RecordOutputStream output)
+            throws IOException {
+        final View view = node.view;
+        output.startRecord();
+        output.writeByte(NODE_VIEW);
+        writeString(output, view.getClass().getName());
+        final String idName = Spectrum.getViewIdName(view);
+        writeString(output, idName != null ? idName : "");
+        writeString(output, node.inspection != null ? node.inspection.trim() : "");
+        byte flags = 0;
+        if (node.viewGroup) flags |= FLAG_VIEW_GROUP;
+        if (!node.attached) flags |= FLAG_OUT_OF_LAYOUT;
+        output.writeByte(flags);
+        output.writeByte(node.visibility);
+        output.writeInt(node.left);
+        output.writeInt(node.top);
+        output.writeInt(node.right);
+        output.writeInt(node.bottom);
+        output.writeInt(node.fragments.size() + node.child.size());
+        for (Spectrum.FragmentNode fragmentNode : node.fragments) {
+            encodeFragment(fragmentNode, output);
+        }
+        for (Spectrum.ViewNode childNode : node.child) {
+            encodeView(childNode, output);
+        }
+    }
+
+    /**
+     * Snapshot payload and offsets of its node records, records are split lazily on socket thread.
+     */
+    static final class EncodedSnapshot {
+        final int sequence;
+        final long timestamp;
+        @NonNull
+        final byte[] payload;
+        @NonNull
+        private final int[] recordOffsets;
+        private List<NodeRecord> records;
+
+        EncodedSnapshot(int sequence, long timestamp, @NonNull byte[] payload, @NonNull int[] recordOffsets) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.payload = payload;
+            this.recordOffsets = recordOffsets;
+        }
+
+        @NonNull
+        List<NodeRecord> getRecords() {
+            if (records == null) {
+                records = new ArrayList<>(recordOffsets.length);
+                for (int i = 0; i < recordOffsets.length; i++) {
+                    final int end = i + 1 < recordOffsets.length ? recordOffsets[i + 1] : payload.length;
+                    records.add(new NodeRecord(payload, recordOffsets[i], end - recordOffsets[i]));
+                }
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Encoded node fields with child count, compared by content.
+     */
+    private static final class NodeRecord {
+        final byte[] data;
+        final int offset;
+        final int length;
+        private final int hash;
+
+        NodeRecord(@NonNull byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof NodeRecord)) return false;
+            final NodeRecord record = (NodeRecord) other;
+            if (record.hash != hash || record.length != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (data[offset + i] != record.data[record.offset + i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class RecordOutputStream extends DataOutputStream {
+
+        private int[] offsets = new int[256];
+        private int count;
+
+        RecordOutputStream(@NonNull ByteArrayOutputStream output) {
+            super(output);
+        }
+
+        void startRecord() {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = size();
+        }
+
+        @NonNull
+        int[] getRecordOffsets() {
+            return Arrays.copyOf(offsets, count);
+        }
+    }
+
+    // endregion
+
+    private static void writeString(@NonNull DataOutputStream output, @NonNull String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void closeQuietly(@Nullable LocalSocket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    private static void closeQuietly(@Nullable LocalServerSocket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+}
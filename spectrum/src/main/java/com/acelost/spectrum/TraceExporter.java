@@ -0,0 +1,436 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional timeline export. Writes activity lifecycle states, fragment attachments, layout passes,
+ * detected changes and phases of building reports as Chrome trace-event JSON, one track per activity
+ * and one track for Spectrum itself. Open the file in {@code chrome://tracing} or Perfetto UI.
+ *
+ * Events are buffered on main thread and appended to the file from background thread. If the file
+ * can't keep up, buffered events are dropped and the count of dropped events is written instead.
+ * Track names are buffered apart from events and are never dropped.
+ * Closing bracket is written on {@link #stop()} after the last chunk or the count of its dropped events,
+ * trace viewers accept the file without it as well.
+ */
+public final class TraceExporter {
+
+    private static final int SPECTRUM_TRACK = 1;
+    private static final int FLUSH_THRESHOLD_CHARS = 32 * 1024;
+    private static final int MAX_PENDING_CHARS = 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static TraceExporter instance;
+
+    @NonNull
+    private final File file;
+    private final int pid = Process.myPid();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HandlerThread writerThread = new HandlerThread("Spectrum-Trace");
+    private Handler writerHandler;
+    // Written by background thread only
+    private Writer writer;
+    // Chars handed to background thread and not written yet
+    private final AtomicInteger pendingChars = new AtomicInteger();
+
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD_CHARS + 1024);
+    private int bufferedEvents;
+    private int droppedEvents;
+    // Track names not handed to background thread yet, written ahead of the next chunk of events
+    private final StringBuilder metadata = new StringBuilder();
+    // Every event is prefixed with separator, which is cut from the first chunk reaching the file
+    private boolean firstChunk = true;
+    private boolean flushScheduled;
+
+    private final Map<Activity, ActivityTrack> activityTracks = new IdentityHashMap<>();
+    private final Map<Fragment, FragmentSpan> fragmentSpans = new IdentityHashMap<>();
+    private int nextTrack = SPECTRUM_TRACK + 1;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    private final Spectrum.Extension extension = new Spectrum.Extension() {
+        @Override
+        void onChangesDetected(@NonNull String changeDescription) {
+            onInstant(SPECTRUM_TRACK, "change", changeDescription);
+        }
+
+        @Override
+        void onActivityStateChanged(@NonNull Activity activity, @NonNull String state) {
+            onStateChanged(activity, state);
+        }
+
+        @Override
+        void onActivityDestroyed(@NonNull Activity activity) {
+            activityTracks.remove(activity);
+        }
+
+        @Override
+        void onFragmentAttached(@NonNull Fragment fragment) {
+            onAttached(fragment);
+        }
+
+        @Override
+        void onFragmentDetached(@NonNull Fragment fragment) {
+            onDetached(fragment);
+        }
+
+        @Override
+        void onLayout(@NonNull Activity activity) {
+            onInstant(getTrack(activity).id, "layout", null);
+        }
+
+        @Override
+        void onReportPhase(@NonNull String phase, long startNs, long endNs) {
+            onDuration(SPECTRUM_TRACK, "spectrum", phase, startNs / 1000, endNs / 1000);
+        }
+    };
+
+    private TraceExporter(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Start writing trace to a new file in external files directory of application,
+     * e.g. {@code /sdcard/Android/data/<package>/files/spectrum-trace-20190101-120000.json}.
+     */
+    @MainThread
+    public static void start(@NonNull Context context) {
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        final String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        start(new File(directory, "spectrum-trace-" + time + ".json"));
+    }
+
+    /**
+     * Start writing trace to given file, existing file is overwritten.
+     */
+    @MainThread
+    public static void start(@NonNull File file) {
+        if (instance != null) {
+            if (instance.file.equals(file)) return;
+            stop();
+        }
+        instance = new TraceExporter(file);
+        instance.open();
+    }
+
+    /**
+     * Write buffered events, finish and close the file.
+     */
+    @MainThread
+    public static void stop() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    static boolean isEnabledByResources(@NonNull Context context) {
+        final int id = context.getResources().getIdentifier("spectrum_trace_export", "bool", context.getPackageName());
+        return id != 0 && context.getResources().getBoolean(id);
+    }
+
+    private void open() {
+        writerThread.start();
+        writerHandler = new Handler(writerThread.getLooper());
+        writerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                    writer.write('[');
+                    writer.flush();
+                } catch (IOException e) {
+                    Log.e(Spectrum.getLogTag(), "Failed to open Spectrum trace " + file, e);
+                    closeWriter();
+                }
+            }
+        });
+        Log.i(Spectrum.getLogTag(), "Spectrum trace is written to " + file);
+        appendMetadata(SPECTRUM_TRACK, "Spectrum");
+        Spectrum.attach(extension);
+    }
+
+    private void close() {
+        Spectrum.detach(extension);
+        handler.removeCallbacks(flushRunnable);
+        // Unfinished spans are written up to now
+        final long now = System.nanoTime() / 1000;
+        for (Map.Entry<Activity, ActivityTrack> entry : activityTracks.entrySet()) {
+            final ActivityTrack track = entry.getValue();
+            if (track.state != null) {
+                appendDuration(track.id, "lifecycle", track.state, track.stateStartUs, now);
+            }
+        }
+        for (Map.Entry<Fragment, FragmentSpan> entry : fragmentSpans.entrySet()) {
+            final FragmentSpan span = entry.getValue();
+            appendDuration(span.track, "fragment", span.name, span.startUs, now);
+        }
+        activityTracks.clear();
+        fragmentSpans.clear();
+        flush();
+        if (buffer.length() > 0 || metadata.length() > 0) {
+            // Events were dropped, the marker is small and there is no later chunk to carry it
+            handOver();
+        }
+        writerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (writer != null) {
+                    try {
+                        writer.write("\n]\n");
+                        writer.flush();
+                    } catch (IOException e) {
+                        Log.e(Spectrum.getLogTag(), "Failed to finish Spectrum trace " + file, e);
+                    }
+                    closeWriter();
+                }
+                writerThread.quit();
+            }
+        });
+    }
+
+    // region Main thread events
+
+    private void onStateChanged(@NonNull Activity activity, @NonNull String state) {
+        final ActivityTrack track = getTrack(activity);
+        final long now = System.nanoTime() / 1000;
+        if (track.state != null) {
+            onDuration(track.id, "lifecycle", track.state, track.stateStartUs, now);
+        }
+        track.state = state;
+        track.stateStartUs = now;
+    }
+
+    private void onAttached(@NonNull Fragment fragment) {
+        final Activity activity = fragment.getActivity();
+        final int track = activity != null ? getTrack(activity).id : SPECTRUM_TRACK;
+        fragmentSpans.put(fragment, new FragmentSpan(track, fragment.getClass().getSimpleName(),
+                System.nanoTime() / 1000));
+    }
+
+    private void onDetached(@NonNull Fragment fragment) {
+        final FragmentSpan span = fragmentSpans.remove(fragment);
+        if (span != null) {
+            onDuration(span.track, "fragment", span.name, span.startUs, System.nanoTime() / 1000);
+        }
+    }
+
+    @NonNull
+    private ActivityTrack getTrack(@NonNull Activity activity) {
+        ActivityTrack track = activityTracks.get(activity);
+        if (track == null) {
+            track = new ActivityTrack(nextTrack++);
+            activityTracks.put(activity, track);
+            appendMetadata(track.id, activity.getClass().getSimpleName());
+        }
+        return track;
+    }
+
+    private void onDuration(int track, @NonNull String category, @NonNull String name, long startUs, long endUs) {
+        appendDuration(track, category, name, startUs, endUs);
+        onEventAppended();
+    }
+
+    private void onInstant(int track, @NonNull String name, @Nullable String description) {
+        appendEventStart(name, "i", track, System.nanoTime() / 1000);
+        buffer.append(",\"s\":\"t\"");
+        if (description != null) {
+            buffer.append(",\"args\":{\"description\":");
+            appendString(description);
+            buffer.append('}');
+        }
+        buffer.append('}');
+        onEventAppended();
+    }
+
+    private void onEventAppended() {
+        if (buffer.length() >= FLUSH_THRESHOLD_CHARS) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+
+    private void flush() {
+        if (buffer.length() == 0 && metadata.length() == 0) return;
+        if (pendingChars.get() + metadata.length() + buffer.length() > MAX_PENDING_CHARS) {
+            // File doesn't keep up, don't hold unbounded memory for it
+            if (bufferedEvents > 0) {
+                droppedEvents += bufferedEvents;
+                buffer.setLength(0);
+                appendDropped();
+                // Marker itself is replaced by the next one, it isn't counted as dropped event
+                bufferedEvents = 0;
+            }
+            return;
+        }
+        handOver();
+    }
+
+    private void handOver() {
+        final String chunk = metadata.append(buffer).substring(firstChunk ? 1 : 0);
+        firstChunk = false;
+        metadata.setLength(0);
+        buffer.setLength(0);
+        bufferedEvents = 0;
+        if (droppedEvents > 0) {
+            Log.w(Spectrum.getLogTag(), "Spectrum trace dropped " + droppedEvents + " events");
+            droppedEvents = 0;
+        }
+        pendingChars.addAndGet(chunk.length());
+        writerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write(chunk);
+            }
+        });
+    }
+
+    // endregion
+
+    // region Event encoding
+
+    private void appendMetadata(int track, @NonNull String name) {
+        metadata.append(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+                .append(",\"tid\":").append(track)
+                .append(",\"args\":{\"name\":");
+        appendString(metadata, name);
+        metadata.append("}}");
+    }
+
+    /**
+     * Marks the gap in the trace, count is cumulative until the next chunk reaches the file.
+     */
+    private void appendDropped() {
+        appendEventStart("dropped " + droppedEvents + " events", "i", SPECTRUM_TRACK, System.nanoTime() / 1000);
+        buffer.append(",\"s\":\"g\"}");
+    }
+
+    private void appendDuration(int track, @NonNull String category, @NonNull String name, long startUs, long endUs) {
+        appendEventStart(name, "X", track, startUs);
+        buffer.append(",\"cat\":\"").append(category)
+                .append("\",\"dur\":").append(Math.max(0, endUs - startUs))
+                .append('}');
+    }
+
+    private void appendEventStart(@NonNull String name, @NonNull String phase, int track, long timeUs) {
+        appendSeparator();
+        buffer.append("{\"name\":");
+        appendString(name);
+        buffer.append(",\"ph\":\"").append(phase)
+                .append("\",\"pid\":").append(pid)
+                .append(",\"tid\":").append(track)
+                .append(",\"ts\":").append(timeUs);
+        bufferedEvents++;
+    }
+
+    private void appendSeparator() {
+        buffer.append(",\n");
+    }
+
+    private void appendString(@NonNull String value) {
+        appendString(buffer, value);
+    }
+
+    private static void appendString(@NonNull StringBuilder target, @NonNull String value) {
+        target.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                target.append('\\').append(c);
+            } else if (c < 0x20) {
+                target.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                target.append(c);
+            }
+        }
+        target.append('"');
+    }
+
+    // endregion
+
+    // region Writer thread
+
+    private void write(@NonNull String chunk) {
+        try {
+            if (writer != null) {
+                writer.write(chunk);
+                writer.flush();
+            }
+        } catch (IOException e) {
+            Log.e(Spectrum.getLogTag(), "Failed to write Spectrum trace " + file, e);
+            closeWriter();
+        } finally {
+            pendingChars.addAndGet(-chunk.length());
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+        writer = null;
+    }
+
+    // endregion
+
+    private static class ActivityTrack {
+        final int id;
+        @Nullable
+        String state;
+        long stateStartUs;
+
+        ActivityTrack(int id) {
+            this.id = id;
+        }
+    }
+
+    private static class FragmentSpan {
+        final int track;
+        @NonNull
+        final String name;
+        final long startUs;
+
+        FragmentSpan(int track, @NonNull String name, long startUs) {
+            this.track = track;
+            this.name = name;
+            this.startUs = startUs;
+        }
+    }
+}
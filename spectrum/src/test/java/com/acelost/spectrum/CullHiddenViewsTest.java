@@ -0,0 +1,99 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Culling should skip only hidden subtrees, also below Lollipop where children clip is unknown.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = { 19, 28 })
+public class CullHiddenViewsTest {
+
+    @Before
+    public void setUp() {
+        Spectrum.configure().cullHiddenViews(true);
+    }
+
+    @After
+    public void tearDown() {
+        Spectrum.configure().cullHiddenViews(false);
+    }
+
+    @Test
+    public void keepsVisibleGroupsAndCullsHiddenOnes() {
+        final Activity activity = Robolectric.buildActivity(NestedActivity.class).setup().get();
+        Spectrum.explore(activity);
+        final Spectrum.ApplicationStateTree tree = Spectrum.buildAppStateTree(false, false);
+        try {
+            final Spectrum.ViewNode visible = find(tree, "visible");
+            assertNotNull(visible);
+            assertEquals(0, visible.culledDescendants);
+            assertEquals(1, visible.child.size());
+            assertEquals(1, visible.child.get(0).child.size());
+
+            final Spectrum.ViewNode gone = find(tree, "gone");
+            assertNotNull(gone);
+            assertEquals(2, gone.culledDescendants);
+            assertEquals(0, gone.child.size());
+        } finally {
+            tree.recycle();
+        }
+    }
+
+    private static Spectrum.ViewNode find(Spectrum.ApplicationStateTree tree, String tag) {
+        for (Spectrum.ActivityNode activityNode : tree.activities) {
+            for (Spectrum.ViewNode viewNode : activityNode.views) {
+                final Spectrum.ViewNode found = find(viewNode, tag);
+                if (found != null) return found;
+            }
+        }
+        return null;
+    }
+
+    private static Spectrum.ViewNode find(Spectrum.ViewNode node, String tag) {
+        if (tag.equals(node.view.getTag())) return node;
+        for (Spectrum.ViewNode child : node.child) {
+            final Spectrum.ViewNode found = find(child, tag);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    public static class NestedActivity extends Activity {
+
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            final FrameLayout root = new FrameLayout(this);
+            root.setLayoutParams(new FrameLayout.LayoutParams(300, 400));
+            root.addView(nested("visible", View.VISIBLE));
+            root.addView(nested("gone", View.GONE));
+            setContentView(root);
+        }
+
+        private FrameLayout nested(String tag, int visibility) {
+            final FrameLayout group = new FrameLayout(this);
+            group.setTag(tag);
+            group.setVisibility(visibility);
+            group.setLayoutParams(new FrameLayout.LayoutParams(200, 100));
+            final FrameLayout inner = new FrameLayout(this);
+            inner.addView(new View(this), new FrameLayout.LayoutParams(50, 50));
+            group.addView(inner, new FrameLayout.LayoutParams(100, 50));
+            return group;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.acelost.spectrum;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiffTest {
+
+    @Test
+    public void equalListsHaveNoHunks() {
+        final List<String> lines = Arrays.asList("a", "b", "c");
+        assertTrue(Diff.compute(lines, new ArrayList<>(lines), 16).isEmpty());
+    }
+
+    @Test
+    public void distantChangesAreSeparateHunks() {
+        final List<String> before = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h");
+        final List<String> after = Arrays.asList("a", "B", "c", "d", "e", "f", "G", "h");
+        final List<Diff.Hunk> hunks = Diff.compute(before, after, 16);
+        assertEquals(2, hunks.size());
+        assertHunk(hunks.get(0), 1, 1, 1, 1);
+        assertHunk(hunks.get(1), 6, 1, 6, 1);
+    }
+
+    @Test
+    public void insertionAndRemoval() {
+        final List<String> before = Arrays.asList("a", "b", "c", "d");
+        final List<String> after = Arrays.asList("x", "a", "c", "d", "y");
+        final List<Diff.Hunk> hunks = Diff.compute(before, after, 16);
+        assertEquals(3, hunks.size());
+        assertHunk(hunks.get(0), 0, 0, 0, 1);
+        assertHunk(hunks.get(1), 1, 1, 2, 0);
+        assertHunk(hunks.get(2), 4, 0, 4, 1);
+    }
+
+    @Test
+    public void tooManyEditsFallBackToSingleHunk() {
+        final List<String> before = Arrays.asList("h", "a", "b", "c", "d", "t");
+        final List<String> after = Arrays.asList("h", "1", "b", "2", "d", "t");
+        final List<Diff.Hunk> hunks = Diff.compute(before, after, 2);
+        assertEquals(1, hunks.size());
+        assertHunk(hunks.get(0), 1, 3, 1, 3);
+    }
+
+    @Test
+    public void hunksRebuildNewList() {
+        final Random random = new Random(7);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            final List<String> before = randomLines(random);
+            final List<String> after = randomLines(random);
+            final List<Diff.Hunk> hunks = Diff.compute(before, after, 1 + random.nextInt(64));
+            assertEquals(after, apply(before, after, hunks));
+        }
+    }
+
+    private static List<String> randomLines(Random random) {
+        final int size = random.nextInt(40);
+        final List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(String.valueOf((char) ('a' + random.nextInt(5))));
+        }
+        return lines;
+    }
+
+    private static List<String> apply(List<String> before, List<String> after, List<Diff.Hunk> hunks) {
+        final List<String> lines = new ArrayList<>(before);
+        int previousEnd = 0;
+        for (int i = hunks.size() - 1; i >= 0; i--) {
+            final Diff.Hunk hunk = hunks.get(i);
+            lines.subList(hunk.start, hunk.start + hunk.removed).clear();
+            lines.addAll(hunk.start, after.subList(hunk.insertStart, hunk.insertStart + hunk.inserted));
+        }
+        for (Diff.Hunk hunk : hunks) {
+            assertTrue("hunks are ordered and disjoint", hunk.start >= previousEnd);
+            previousEnd = hunk.start + hunk.removed;
+        }
+        return lines;
+    }
+
+    private static void assertHunk(Diff.Hunk hunk, int start, int removed, int insertStart, int inserted) {
+        assertEquals(start, hunk.start);
+        assertEquals(removed, hunk.removed);
+        assertEquals(insertStart, hunk.insertStart);
+        assertEquals(inserted, hunk.inserted);
+    }
+}
@@ -0,0 +1,220 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.view.View;
+
+import androidx.fragment.app.Fragment;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Records written from pooled nodes should replay on plain JVM to the same report.
+ */
+public class HierarchyRecorderTest {
+
+    private static final List<String> EXPECTED_HIERARCHY = Arrays.asList(
+            "⬟[Activity] " + link(MainActivity.class) + " [RESUMED]",
+            "⡇   ■[Fragment] " + link(HomeFragment.class) + " [tag 'home']",
+            "⡇   ⡇ ▸[ViewGroup] " + link(GroupView.class) + " [id/content]",
+            "⡇   ⡇   ⡇ ●[View] " + link(BadgeView.class) + " text='Hi'",
+            "⡇   ⡇   ⡇ ○[View] " + link(BadgeView.class) + " [id/hidden]"
+    );
+
+    @Test
+    public void replaysRecordedTree() throws Exception {
+        final byte[] record = record(false);
+        assertEquals(EXPECTED_HIERARCHY, hierarchy(HierarchyRecorder.replay(new ByteArrayInputStream(record))));
+    }
+
+    @Test
+    public void replaysCulledDescendants() throws Exception {
+        final byte[] record = record(true);
+        final List<String> hierarchy = hierarchy(HierarchyRecorder.replay(new ByteArrayInputStream(record)));
+        assertTrue(hierarchy.toString(), hierarchy.get(2).endsWith("[5 hidden descendants]"));
+    }
+
+    @Test
+    public void replaysVersionOneRecord() throws Exception {
+        final byte[] record = record(false);
+        // Version 1 has the same layout without counts of culled descendants
+        final byte[] payload = gunzip(record);
+        assertEquals(HierarchyRecorder.FORMAT_VERSION, payload[4]);
+        payload[4] = 1;
+        assertEquals(EXPECTED_HIERARCHY, hierarchy(HierarchyRecorder.replay(new ByteArrayInputStream(gzip(payload)))));
+    }
+
+    @Test
+    public void rejectsBadMagic() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x12345678);
+        output.writeByte(HierarchyRecorder.FORMAT_VERSION);
+        assertCorrupted(gzip(bytes.toByteArray()), "Not a Spectrum hierarchy record");
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() throws Exception {
+        final byte[] payload = gunzip(record(false));
+        payload[4] = HierarchyRecorder.FORMAT_VERSION + 1;
+        assertCorrupted(gzip(payload), "Unsupported Spectrum hierarchy record version");
+    }
+
+    @Test
+    public void rejectsOutOfRangeStringReference() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(HierarchyRecorder.MAGIC);
+        output.writeByte(HierarchyRecorder.FORMAT_VERSION);
+        // One activity whose class name refers to the fifth string while none was written
+        output.writeByte(1);
+        output.writeByte(5);
+        assertCorrupted(gzip(bytes.toByteArray()), "Corrupted Spectrum hierarchy record");
+    }
+
+    @Test
+    public void rejectsTruncatedRecord() throws Exception {
+        final byte[] payload = gunzip(record(false));
+        assertCorrupted(gzip(Arrays.copyOf(payload, payload.length / 2)), null);
+    }
+
+    private static byte[] record(boolean culled) throws IOException {
+        final Spectrum.ApplicationStateTree tree = Spectrum.ApplicationStateTree.obtain();
+        final Spectrum.ActivityNode activityNode = Spectrum.ActivityNode.obtain();
+        activityNode.activity = new MainActivity();
+        activityNode.state = "RESUMED";
+        tree.activities.add(activityNode);
+
+        final Spectrum.FragmentNode fragmentNode = Spectrum.FragmentNode.obtain();
+        fragmentNode.fragment = new HomeFragment();
+        fragmentNode.tag = "home";
+        fragmentNode.attachedToLayout = true;
+        activityNode.fragment.add(fragmentNode);
+
+        final Spectrum.ViewNode content = view(new GroupView(), "content", null, View.VISIBLE);
+        content.viewGroup = true;
+        fragmentNode.view = content;
+        if (culled) {
+            content.culledDescendants = 5;
+        } else {
+            content.child.add(view(new BadgeView(), null, "text='Hi'", View.VISIBLE));
+            content.child.add(view(new BadgeView(), "hidden", null, View.GONE));
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            HierarchyRecorder.write(tree, bytes);
+        } finally {
+            Spectrum.recycleAppStateTree(tree);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Spectrum.ViewNode view(View view, String idName, String inspection, int visibility) {
+        final Spectrum.ViewNode node = Spectrum.ViewNode.obtain();
+        node.view = view;
+        node.idName = idName;
+        node.inspection = inspection != null ? " " + inspection : null;
+        node.visibility = visibility;
+        node.attached = true;
+        return node;
+    }
+
+    /**
+     * Lines between hierarchy header and closing divider.
+     */
+    private static List<String> hierarchy(List<String> messages) {
+        final StringBuilder text = new StringBuilder();
+        for (String message : messages) {
+            text.append(message);
+        }
+        final List<String> lines = new ArrayList<>();
+        boolean inHierarchy = false;
+        for (String line : text.toString().split("\n")) {
+            if (line.startsWith("⬟")) {
+                inHierarchy = true;
+            } else if (line.startsWith("―") || line.isEmpty()) {
+                inHierarchy = false;
+            }
+            if (inHierarchy) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static String link(Class<?> cls) {
+        return Spectrum.buildClassLink(cls.getName(), false);
+    }
+
+    private static void assertCorrupted(byte[] record, String message) {
+        try {
+            HierarchyRecorder.replay(new ByteArrayInputStream(record));
+            fail("Corrupted record is replayed");
+        } catch (IOException e) {
+            if (message != null) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] payload) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream output = new GZIPOutputStream(bytes);
+        output.write(payload);
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] record) throws IOException {
+        final InputStream input = new GZIPInputStream(new ByteArrayInputStream(record));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        input.close();
+        return bytes.toByteArray();
+    }
+
+    static class MainActivity extends Activity { }
+
+    public static class HomeFragment extends Fragment { }
+
+    static class GroupView extends View {
+        GroupView() {
+            super(null);
+        }
+
+        @Override
+        public int getId() {
+            return NO_ID;
+        }
+    }
+
+    static class BadgeView extends View {
+        BadgeView() {
+            super(null);
+        }
+
+        @Override
+        public int getId() {
+            return NO_ID;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.acelost.spectrum;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotHistoryTest {
+
+    private static final List<String> FIRST = lines("root", "a", "b", "c", "d", "e", "f");
+    // Changes at both ends, stored as two ranges
+    private static final List<String> SECOND = lines("root", "A", "b", "c", "d", "e", "F", "g");
+    private static final List<String> THIRD = lines("root", "A", "c", "d", "x", "e", "F", "g");
+
+    @Test
+    public void reconstructsEverySnapshot() {
+        final SnapshotHistory history = new SnapshotHistory(60_000);
+        history.onSnapshot(FIRST, 1000);
+        history.onSnapshot(SECOND, 2000);
+        history.onSnapshot(THIRD, 3000);
+
+        assertNull(history.reconstruct(999));
+        assertSnapshot(1000, FIRST, history.reconstruct(1000));
+        assertSnapshot(1000, FIRST, history.reconstruct(1999));
+        assertSnapshot(2000, SECOND, history.reconstruct(2500));
+        assertSnapshot(3000, THIRD, history.reconstruct(10_000));
+    }
+
+    @Test
+    public void unchangedReportIsNotStored() {
+        final SnapshotHistory history = new SnapshotHistory(60_000);
+        history.onSnapshot(FIRST, 1000);
+        history.onSnapshot(new ArrayList<>(FIRST), 2000);
+        assertSnapshot(1000, FIRST, history.reconstruct(2000));
+    }
+
+    @Test
+    public void snapshotsBetweenEvents() {
+        final SnapshotHistory history = new SnapshotHistory(60_000);
+        history.onSnapshot(FIRST, 1000);
+        history.onEvent("first", 1500);
+        history.onSnapshot(SECOND, 2000);
+        history.onSnapshot(THIRD, 3000);
+        history.onEvent("second", 3500);
+
+        final List<SnapshotHistory.Snapshot> snapshots = new ArrayList<>();
+        history.reconstruct(1500, 3500, snapshots);
+        assertEquals(3, snapshots.size());
+        assertSnapshot(1000, FIRST, snapshots.get(0));
+        assertSnapshot(2000, SECOND, snapshots.get(1));
+        assertSnapshot(3000, THIRD, snapshots.get(2));
+    }
+
+    @Test
+    public void trimKeepsStateAtThreshold() {
+        final SnapshotHistory history = new SnapshotHistory(1000);
+        history.onSnapshot(FIRST, 1000);
+        history.onEvent("at first", 1000);
+        history.onSnapshot(SECOND, 2000);
+        history.onEvent("at second", 2000);
+        history.onSnapshot(THIRD, 3000);
+
+        // Threshold is 2000, delta and event made at it are both retained
+        assertSnapshot(1000, FIRST, history.reconstruct(1999));
+        assertSnapshot(2000, SECOND, history.reconstruct(2000));
+        assertSnapshot(3000, THIRD, history.reconstruct(3000));
+        assertEquals(1, history.journal.size());
+        assertEquals("at second", history.journal.peekFirst().description);
+
+        // Threshold moves past them
+        history.onEvent("later", 2001 + 1000);
+        assertNull(history.reconstruct(1999));
+        assertSnapshot(2000, SECOND, history.reconstruct(2000));
+        assertSnapshot(3000, THIRD, history.reconstruct(3001));
+        assertEquals(1, history.journal.size());
+        assertEquals("later", history.journal.peekFirst().description);
+    }
+
+    private static void assertSnapshot(long time, List<String> lines, SnapshotHistory.Snapshot snapshot) {
+        assertEquals(time, snapshot.time);
+        final StringBuilder hierarchy = new StringBuilder();
+        for (String line : lines) {
+            hierarchy.append(line);
+        }
+        assertEquals(hierarchy.toString(), snapshot.hierarchy);
+    }
+
+    private static List<String> lines(String... nodes) {
+        final List<String> lines = new ArrayList<>();
+        for (String node : Arrays.asList(nodes)) {
+            lines.add(node + "\n");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,142 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.acelost.spectrum.client.Snapshot;
+import com.acelost.spectrum.client.SpectrumClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames written by the server encoders should be decoded by spectrum-client to the same trees.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SpectrumServerTest {
+
+    @Test
+    public void clientDecodesSnapshotAndDelta() throws Exception {
+        final ContentActivity activity = Robolectric.buildActivity(ContentActivity.class).setup().get();
+        Spectrum.explore(activity);
+        final SpectrumServer server = new SpectrumServer("test");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        server.writeHello(output);
+        final SpectrumServer.EncodedSnapshot first = encode(server);
+        server.writeSnapshot(output, first);
+        activity.title.setText("Changed");
+        activity.footer.setVisibility(View.GONE);
+        final SpectrumServer.EncodedSnapshot second = encode(server);
+        server.writeSnapshot(output, second);
+        output.flush();
+
+        final byte[] stream = bytes.toByteArray();
+        assertEquals(Arrays.asList((int) SpectrumServer.FRAME_HELLO, (int) SpectrumServer.FRAME_SNAPSHOT,
+                (int) SpectrumServer.FRAME_DELTA), frameTypes(stream));
+        final List<Snapshot> snapshots = read(stream);
+        assertEquals(2, snapshots.size());
+        assertEquals(first.sequence, snapshots.get(0).sequence);
+        assertEquals(second.sequence, snapshots.get(1).sequence);
+        assertEquals(readFull(first).toString(), snapshots.get(0).toString());
+        // Delta applied by the client gives the same tree as the full snapshot
+        assertEquals(readFull(second).toString(), snapshots.get(1).toString());
+        assertTrue(snapshots.get(1).toString(), snapshots.get(1).toString().contains("Changed"));
+    }
+
+    private static SpectrumServer.EncodedSnapshot encode(SpectrumServer server) throws IOException {
+        final Spectrum.ApplicationStateTree tree = Spectrum.buildAppStateTree(false, true);
+        try {
+            return server.encodeSnapshot(tree);
+        } finally {
+            Spectrum.recycleAppStateTree(tree);
+        }
+    }
+
+    private static Snapshot readFull(SpectrumServer.EncodedSnapshot snapshot) throws IOException {
+        // Fresh connection has no base snapshot, so it is written in full
+        final SpectrumServer server = new SpectrumServer("full");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        server.writeHello(output);
+        server.writeSnapshot(output, snapshot);
+        output.flush();
+        final List<Snapshot> snapshots = read(bytes.toByteArray());
+        assertEquals(1, snapshots.size());
+        return snapshots.get(0);
+    }
+
+    private static List<Snapshot> read(byte[] stream) throws IOException {
+        final List<Snapshot> snapshots = new ArrayList<>();
+        new SpectrumClient(new ByteArrayInputStream(stream)).read(new SpectrumClient.Listener() {
+            @Override
+            public void onSnapshot(Snapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+
+            @Override
+            public void onChanges(List<String> changes) {
+                // not expected
+            }
+        });
+        return snapshots;
+    }
+
+    private static List<Integer> frameTypes(byte[] stream) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(stream));
+        final List<Integer> types = new ArrayList<>();
+        while (input.available() > 0) {
+            final int length = input.readInt();
+            types.add((int) input.readByte());
+            input.skipBytes(length - 1);
+        }
+        return types;
+    }
+
+    public static class ContentActivity extends Activity {
+
+        TextView title;
+        TextView footer;
+
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            final LinearLayout root = new LinearLayout(this);
+            root.setOrientation(LinearLayout.VERTICAL);
+            title = new TextView(this);
+            title.setText("Title");
+            root.addView(title);
+            final FrameLayout content = new FrameLayout(this);
+            for (int i = 0; i < 4; i++) {
+                final TextView item = new TextView(this);
+                item.setText("Item " + i);
+                content.addView(item);
+            }
+            root.addView(content);
+            footer = new TextView(this);
+            footer.setText("Footer");
+            root.addView(footer);
+            setContentView(root);
+        }
+    }
+}
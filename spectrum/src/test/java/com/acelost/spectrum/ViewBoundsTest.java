@@ -0,0 +1,124 @@
+package com.acelost.spectrum;
+
+import android.app.Activity;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bounds computed in one pass during capture should match {@link View#getGlobalVisibleRect(Rect)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = { 19, 21, 28 })
+public class ViewBoundsTest {
+
+    @Test
+    public void boundsMatchGlobalVisibleRect() {
+        final Activity activity = Robolectric.buildActivity(ClippingActivity.class).setup().get();
+        Spectrum.explore(activity);
+        final Spectrum.ApplicationStateTree tree = Spectrum.buildAppStateTree(false, true);
+        int checked = 0;
+        for (Spectrum.ActivityNode activityNode : tree.activities) {
+            for (Spectrum.ViewNode viewNode : activityNode.views) {
+                checked += assertBounds(viewNode);
+            }
+        }
+        tree.recycle();
+        assertTrue(checked >= ClippingActivity.VIEW_COUNT);
+    }
+
+    private static int assertBounds(Spectrum.ViewNode node) {
+        final Rect expected = new Rect();
+        node.view.getGlobalVisibleRect(expected);
+        final String name = String.valueOf(node.view.getTag());
+        assertTrue(name, node.hasBounds);
+        assertEquals(name, expected, new Rect(node.left, node.top, node.right, node.bottom));
+        int checked = 1;
+        for (Spectrum.ViewNode child : node.child) {
+            checked += assertBounds(child);
+        }
+        return checked;
+    }
+
+    /**
+     * Hierarchy with every kind of clip applied by {@code ViewGroup#getChildVisibleRect}.
+     */
+    public static class ClippingActivity extends Activity {
+
+        static final int VIEW_COUNT = 14;
+
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            final FrameLayout root = group("root", 0, 0, 300, 400);
+            root.setPadding(10, 20, 10, 20);
+
+            // Children overflow padding of group which doesn't clip to it
+            final FrameLayout noPaddingClip = group("noPaddingClip", 0, 0, 200, 100);
+            noPaddingClip.setPadding(15, 15, 15, 15);
+            noPaddingClip.setClipToPadding(false);
+            noPaddingClip.addView(view("overflowsPadding", -5, -5, 220, 60));
+            root.addView(noPaddingClip);
+
+            // Parent doesn't clip children, so group doesn't clip its children to own bounds
+            final FrameLayout noChildrenClip = group("noChildrenClip", 0, 120, 200, 100);
+            noChildrenClip.setClipChildren(false);
+            final FrameLayout unclipped = group("unclipped", 20, 20, 50, 50);
+            unclipped.addView(view("outsideUnclipped", 40, 40, 80, 80));
+            noChildrenClip.addView(unclipped);
+            root.addView(noChildrenClip);
+
+            // Clip bounds narrow visible area of children
+            final FrameLayout clipBounds = group("clipBounds", 0, 240, 200, 60);
+            clipBounds.setClipBounds(new Rect(10, 10, 120, 50));
+            clipBounds.addView(view("insideClipBounds", 0, 0, 200, 60));
+            root.addView(clipBounds);
+
+            // Scrolled group with partially and fully clipped out children
+            final FrameLayout scrolled = group("scrolled", 0, 310, 200, 80);
+            scrolled.addView(view("partiallyScrolledOut", 0, 0, 200, 50));
+            scrolled.addView(view("scrolledOut", 0, 0, 200, 10));
+            scrolled.addView(view("belowScroll", 0, 60, 200, 100));
+            scrolled.scrollTo(5, 30);
+            root.addView(scrolled);
+
+            // Group outside of its parent
+            final FrameLayout outside = group("outside", 250, 0, 100, 100);
+            outside.addView(view("insideOutside", 0, 0, 20, 20));
+            root.addView(outside);
+
+            setContentView(root);
+        }
+
+        private FrameLayout group(String name, int left, int top, int width, int height) {
+            final FrameLayout group = new FrameLayout(this);
+            group.setTag(name);
+            group.setLayoutParams(params(left, top, width, height));
+            return group;
+        }
+
+        private View view(String name, int left, int top, int width, int height) {
+            final View view = new View(this);
+            view.setTag(name);
+            view.setLayoutParams(params(left, top, width, height));
+            return view;
+        }
+
+        private static FrameLayout.LayoutParams params(int left, int top, int width, int height) {
+            final FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(width, height);
+            params.leftMargin = left;
+            params.topMargin = top;
+            return params;
+        }
+    }
+}